@@ -0,0 +1,76 @@
+package bench;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.LineNumberReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import common.CsvReader;
+import common.P2;
+import common.Utils;
+
+/**
+ * Parsing of the sample solution file: the String based coordinate parsing of
+ * Utils.coordStringToPoints against the byte level CsvReader used by the scorer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CsvBench {
+	private File solution;
+	private List<String> coordinates = new ArrayList<>(); // x1,y1,x2,y2,... part of each line
+
+	@Setup
+	public void setup() throws Exception {
+		solution = Sample.solution();
+		LineNumberReader lnr = new LineNumberReader(new FileReader(solution));
+		while (true) {
+			String line = lnr.readLine();
+			if (line == null) break;
+			int pos = line.indexOf(',');
+			pos = line.indexOf(',', pos + 1);
+			pos = line.indexOf(',', pos + 1);
+			coordinates.add(line.substring(pos + 1));
+		}
+		lnr.close();
+	}
+
+	@Benchmark
+	public double coordStringToPoints() {
+		double sum = 0;
+		for (String s: coordinates) {
+			for (P2 p: Utils.coordStringToPoints(s)) sum += p.x + p.y;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public double csvReader() throws Exception {
+		double sum = 0;
+		CsvReader csv = new CsvReader(solution);
+		while (csv.nextLine()) {
+			csv.nextField(); // scan
+			csv.nextField(); // slice
+			csv.nextField(); // structure
+			while (csv.nextField()) sum += csv.fieldDouble();
+		}
+		csv.close();
+		return sum;
+	}
+}
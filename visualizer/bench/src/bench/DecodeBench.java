@@ -0,0 +1,63 @@
+package bench;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import visualizer.Volume;
+import visualizer.VolumeLoader;
+
+/**
+ * Decoding of one CT slice image of the sample set. imageIO is the PNG decoding alone,
+ * decodeSlice adds copying the CT values into a volume.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DecodeBench {
+	@Param({"Patient_1"})
+	public String scan;
+
+	@Param({"60"})
+	public int slice;
+
+	private File image;
+	private Volume volume;
+
+	@Setup
+	public void setup() {
+		File scanDir = new File(Sample.DIR, scan);
+		for (File f: scanDir.listFiles()) {
+			if (f.getName().startsWith("Set_")) scanDir = f;
+		}
+		image = new File(scanDir, "Slice_" + slice + "_CT_Image.png");
+		volume = new Volume(512, 512, 1);
+	}
+
+	@Benchmark
+	public Object imageIO() throws Exception {
+		return ImageIO.read(image);
+	}
+
+	@Benchmark
+	public int decodeSlice() throws Exception {
+		VolumeLoader.decodeSlice(image, volume, 0);
+		return volume.get(256, 256, 0);
+	}
+}
@@ -0,0 +1,23 @@
+package bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks selected by the usual JMH command line arguments and writes the
+ * results as JSON, to bench-results.json or the file given with -Dbench.out=...
+ */
+public class Main {
+	public static void main(String[] args) throws Exception {
+		String out = System.getProperty("bench.out", "bench-results.json");
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.resultFormat(ResultFormatType.JSON)
+				.result(out)
+				.build();
+		new Runner(options).run();
+	}
+}
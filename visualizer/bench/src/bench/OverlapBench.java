@@ -0,0 +1,80 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import static common.Polygon.STRUCTURES;
+
+import common.Scan;
+import common.Slice;
+import scorer.AreaOverlapEngine;
+import scorer.OverlapEngine;
+import scorer.RasterOverlapEngine;
+import scorer.Scorer;
+
+/**
+ * Per slice union and intersection of the truth and solution polygons of the sample set,
+ * with each overlap engine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OverlapBench {
+	@Param({"area", "area-no-prune", "raster-1", "raster-4"})
+	public String engine;
+
+	private OverlapEngine overlapEngine;
+	private List<Scan> scans = new ArrayList<>();
+	private List<Slice> slices = new ArrayList<>();
+	private List<String> structs = new ArrayList<>();
+
+	@Setup
+	public void setup() throws Exception {
+		if (engine.equals("area")) overlapEngine = new AreaOverlapEngine();
+		else if (engine.equals("area-no-prune")) overlapEngine = new AreaOverlapEngine(false);
+		else overlapEngine = new RasterOverlapEngine(Integer.parseInt(engine.substring("raster-".length())));
+
+		Scorer scorer = Sample.scored();
+		for (Scan scan: scorer.idToScan.values()) {
+			for (Slice slice: scan.slices) {
+				for (String struct: STRUCTURES) {
+					// engines are called only if both lists are non-empty
+					if (slice.nameToTruthPolygons.containsKey(struct) && slice.nameToSolutionPolygons.containsKey(struct)) {
+						scans.add(scan);
+						slices.add(slice);
+						structs.add(struct);
+					}
+				}
+			}
+		}
+	}
+
+	@Benchmark
+	public double overlap() {
+		double sum = 0;
+		for (int i = 0; i < slices.size(); i++) {
+			Slice slice = slices.get(i);
+			String struct = structs.get(i);
+			double[] r = overlapEngine.overlap(scans.get(i), slice, struct,
+					slice.nameToTruthPolygons.get(struct), slice.nameToSolutionPolygons.get(struct));
+			sum += r[0] + r[1] + r[2];
+		}
+		return sum;
+	}
+}
@@ -0,0 +1,71 @@
+package bench;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import common.Polygon;
+import common.Scan;
+import common.Slice;
+import scorer.Scorer;
+
+/**
+ * Construction of all truth and solution polygons of the sample set: bounds and area, and
+ * the java.awt.geom.Area used for clipping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PolygonBench {
+	private List<double[]> xs = new ArrayList<>();
+	private List<double[]> ys = new ArrayList<>();
+
+	@Setup
+	public void setup() throws Exception {
+		Scorer scorer = Sample.scored();
+		for (Scan scan: scorer.idToScan.values()) {
+			for (Slice slice: scan.slices) {
+				for (List<Polygon> ps: slice.nameToTruthPolygons.values()) add(ps);
+				for (List<Polygon> ps: slice.nameToSolutionPolygons.values()) add(ps);
+			}
+		}
+	}
+
+	private void add(List<Polygon> ps) {
+		for (Polygon p: ps) {
+			xs.add(p.xs);
+			ys.add(p.ys);
+		}
+	}
+
+	@Benchmark
+	public double construct() {
+		double sum = 0;
+		for (int i = 0; i < xs.size(); i++) {
+			sum += new Polygon(xs.get(i), ys.get(i)).area;
+		}
+		return sum;
+	}
+
+	@Benchmark
+	public void shape(Blackhole bh) {
+		for (int i = 0; i < xs.size(); i++) {
+			bh.consume(new Polygon(xs.get(i), ys.get(i)).getShape());
+		}
+	}
+}
@@ -0,0 +1,38 @@
+package bench;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import scorer.Scorer;
+
+/**
+ * The bundled sample data. Benchmarks are run from the repository root, or the sample
+ * directory is given with -Dsample.dir=...
+ */
+class Sample {
+	static final File DIR = new File(System.getProperty("sample.dir", "sample"));
+
+	static File truth() {
+		return new File(DIR, "sample-meta-gt.txt");
+	}
+
+	static File solution() {
+		return new File(DIR, "sol.csv");
+	}
+
+	static File outDir() throws Exception {
+		File ret = Files.createTempDirectory("bench").toFile();
+		ret.deleteOnExit();
+		return ret;
+	}
+
+	/**
+	 * Returns a scorer that has scored the sample solution, its scans hold the truth and
+	 * solution polygons.
+	 */
+	static Scorer scored() throws Exception {
+		Scorer ret = new Scorer();
+		ret.run("provisional", truth().getPath(), solution().getPath(), outDir().getPath());
+		return ret;
+	}
+}
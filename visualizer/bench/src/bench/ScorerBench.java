@@ -0,0 +1,38 @@
+package bench;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import scorer.Scorer;
+
+/**
+ * A complete Scorer.run on the sample set: truth and solution parsing, clipping and writing
+ * the result files, as done for each submission.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class ScorerBench {
+	@Param({"1", "4"})
+	public int threads;
+
+	@Benchmark
+	public double run() throws Exception {
+		Scorer scorer = new Scorer();
+		scorer.threads = threads;
+		return scorer.run("provisional", Sample.truth().getPath(), Sample.solution().getPath(), Sample.outDir().getPath());
+	}
+}
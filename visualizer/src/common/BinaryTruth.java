@@ -0,0 +1,334 @@
+package common;
+
+import static common.Polygon.STRUCTURES;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Vector;
+
+/**
+ * Binary version of the truth meta data file written by the visualizer (-meta-out).
+ * The text format stays the interchange format, this one is faster to load: the file is
+ * memory mapped and a scan's slices, polygons and seed points are only decoded when the
+ * scan's slice list is first used.
+ *
+ * Layout (big endian):
+ *   "PCDT", int version, int scan count
+ *   offset table, per scan: short id length, id bytes (UTF-8), int w, h, N,
+ *                           double dx, dy, dz, long block offset, int block length
+ *   scan blocks: int seed count, per seed: int slice index, byte structure index, double x, y
+ *                int polygon count, per polygon: int slice index, byte structure index,
+ *                byte coordinate type (0: short, 1: int, 2: double), int point count, x1, y1, x2, y2, ...
+ *                since version 2: int mask count, per mask: int slice index, byte structure index,
+ *                the truth mask of the slice and structure (see RunMask.write)
+ * Version 1 files are still read, their masks are built when first needed.
+ */
+public class BinaryTruth {
+	public static final int VERSION = 2;
+	private static final byte[] MAGIC = "PCDT".getBytes(StandardCharsets.UTF_8);
+	private static final byte SHORT_COORDS = 0; // contours are integer pixel coordinates
+	private static final byte INT_COORDS = 1;
+	private static final byte DOUBLE_COORDS = 2;
+
+	/**
+	 * Returns true if the file starts with the binary truth signature.
+	 */
+	public static boolean isBinary(File f) {
+		byte[] b = new byte[MAGIC.length];
+		try {
+			InputStream in = new FileInputStream(f);
+			int n = in.read(b);
+			in.close();
+			if (n < b.length) return false;
+		}
+		catch (IOException e) {
+			return false;
+		}
+		for (int i = 0; i < b.length; i++) {
+			if (b[i] != MAGIC[i]) return false;
+		}
+		return true;
+	}
+
+	public static void write(File f, String[] scanIds, Map<String, Scan> idToScan) throws IOException {
+		List<byte[]> blocks = new ArrayList<>();
+		int tableSize = 0;
+		for (String id: scanIds) {
+			blocks.add(scanBlock(idToScan.get(id)));
+			tableSize += 2 + id.getBytes(StandardCharsets.UTF_8).length + 3 * 4 + 3 * 8 + 8 + 4;
+		}
+
+		OutputStream os = new FileOutputStream(f);
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(os, 1 << 16));
+		out.write(MAGIC);
+		out.writeInt(VERSION);
+		out.writeInt(scanIds.length);
+		long offset = MAGIC.length + 4 + 4 + tableSize;
+		for (int i = 0; i < scanIds.length; i++) {
+			Scan scan = idToScan.get(scanIds[i]);
+			byte[] id = scanIds[i].getBytes(StandardCharsets.UTF_8);
+			out.writeShort(id.length);
+			out.write(id);
+			out.writeInt(scan.w);
+			out.writeInt(scan.h);
+			out.writeInt(scan.N);
+			out.writeDouble(scan.dx);
+			out.writeDouble(scan.dy);
+			out.writeDouble(scan.dz);
+			out.writeLong(offset);
+			out.writeInt(blocks.get(i).length);
+			offset += blocks.get(i).length;
+		}
+		for (byte[] block: blocks) out.write(block);
+		out.close();
+	}
+
+	private static byte[] scanBlock(Scan scan) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bos);
+		int cnt = 0;
+		for (Slice s: scan.slices) {
+			for (List<P2> ps: s.nameToSeedPoints.values()) cnt += ps.size();
+		}
+		out.writeInt(cnt);
+		for (int i = 0; i < scan.slices.size(); i++) {
+			Slice s = scan.slices.get(i);
+			for (int k = 0; k < STRUCTURES.length; k++) {
+				List<P2> ps = s.nameToSeedPoints.get(STRUCTURES[k]);
+				if (ps == null) continue;
+				for (P2 p: ps) {
+					out.writeInt(i);
+					out.writeByte(k);
+					out.writeDouble(p.x);
+					out.writeDouble(p.y);
+				}
+			}
+		}
+
+		cnt = 0;
+		for (Slice s: scan.slices) {
+			for (List<Polygon> ps: s.nameToTruthPolygons.values()) cnt += ps.size();
+		}
+		out.writeInt(cnt);
+		for (int i = 0; i < scan.slices.size(); i++) {
+			Slice s = scan.slices.get(i);
+			for (int k = 0; k < STRUCTURES.length; k++) {
+				List<Polygon> ps = s.nameToTruthPolygons.get(STRUCTURES[k]);
+				if (ps == null) continue;
+				for (Polygon p: ps) {
+					out.writeInt(i);
+					out.writeByte(k);
+					byte type = SHORT_COORDS;
+					for (int j = 0; j < p.size(); j++) {
+						type = (byte)Math.max(type, coordType(p.xs[j]));
+						type = (byte)Math.max(type, coordType(p.ys[j]));
+					}
+					out.writeByte(type);
+					out.writeInt(p.size());
+					for (int j = 0; j < p.size(); j++) {
+						if (type == SHORT_COORDS) {
+							out.writeShort((int)p.xs[j]);
+							out.writeShort((int)p.ys[j]);
+						}
+						else if (type == INT_COORDS) {
+							out.writeInt((int)p.xs[j]);
+							out.writeInt((int)p.ys[j]);
+						}
+						else {
+							out.writeDouble(p.xs[j]);
+							out.writeDouble(p.ys[j]);
+						}
+					}
+				}
+			}
+		}
+		
+		cnt = 0;
+		for (Slice s: scan.slices) cnt += s.nameToTruthPolygons.size();
+		out.writeInt(cnt);
+		for (int i = 0; i < scan.slices.size(); i++) {
+			Slice s = scan.slices.get(i);
+			for (int k = 0; k < STRUCTURES.length; k++) {
+				if (!s.nameToTruthPolygons.containsKey(STRUCTURES[k])) continue;
+				out.writeInt(i);
+				out.writeByte(k);
+				s.truthMask(k, scan.w, scan.h).write(out);
+			}
+		}
+		out.close();
+		return bos.toByteArray();
+	}
+	
+	// smallest type that stores the value exactly
+	private static byte coordType(double v) {
+		if (v != (int)v) return DOUBLE_COORDS;
+		if (v != (short)v) return INT_COORDS;
+		return SHORT_COORDS;
+	}
+
+	/**
+	 * Maps the file and adds its scans to the given map. Scan sizes are available immediately,
+	 * slices are decoded on first access of scan.slices.
+	 */
+	public static void load(File f, Map<String, Scan> idToScan) throws IOException {
+		FileInputStream in = new FileInputStream(f);
+		FileChannel channel = in.getChannel();
+		ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		in.close(); // the mapping stays valid
+
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buf.get() != MAGIC[i]) throw new IOException("Not a binary truth file: " + f.getAbsolutePath());
+		}
+		int version = buf.getInt();
+		if (version < 1 || version > VERSION) {
+			throw new IOException("Unsupported binary truth file version " + version + ": " + f.getAbsolutePath());
+		}
+		int scanCnt = buf.getInt();
+		for (int i = 0; i < scanCnt; i++) {
+			byte[] idBytes = new byte[buf.getShort()];
+			buf.get(idBytes);
+			Scan scan = new Scan(new String(idBytes, StandardCharsets.UTF_8));
+			scan.w = buf.getInt();
+			scan.h = buf.getInt();
+			scan.N = buf.getInt();
+			scan.dx = buf.getDouble();
+			scan.dy = buf.getDouble();
+			scan.dz = buf.getDouble();
+			long offset = buf.getLong();
+			int length = buf.getInt();
+			ByteBuffer block = buf.duplicate();
+			block.position((int)offset);
+			block.limit((int)offset + length);
+			scan.slices = new LazySlices(scan.N, block.slice(), version);
+			idToScan.put(scan.id, scan);
+		}
+	}
+
+	// slice list of a scan that decodes its block on first use
+	private static class LazySlices extends AbstractList<Slice> implements RandomAccess {
+		private final int n;
+		private final int version;
+		private ByteBuffer block;
+		private volatile List<Slice> slices;
+
+		private LazySlices(int n, ByteBuffer block, int version) {
+			this.n = n;
+			this.block = block;
+			this.version = version;
+		}
+
+		@Override
+		public Slice get(int index) {
+			return slices().get(index);
+		}
+
+		@Override
+		public int size() {
+			return slices == null ? n : slices.size();
+		}
+
+		@Override
+		public void add(int index, Slice s) {
+			slices().add(index, s);
+		}
+
+		@Override
+		public Slice set(int index, Slice s) {
+			return slices().set(index, s);
+		}
+
+		@Override
+		public Slice remove(int index) {
+			return slices().remove(index);
+		}
+
+		private List<Slice> slices() {
+			List<Slice> ret = slices;
+			if (ret == null) {
+				synchronized (this) {
+					ret = slices;
+					if (ret == null) {
+						ret = decode();
+						slices = ret;
+						block = null;
+					}
+				}
+			}
+			return ret;
+		}
+
+		private List<Slice> decode() {
+			List<Slice> ret = new Vector<>();
+			for (int i = 1; i <= n; i++) {
+				Slice s = new Slice();
+				s.id = "" + i;
+				ret.add(s);
+			}
+			ByteBuffer b = block.duplicate();
+			int cnt = b.getInt();
+			for (int i = 0; i < cnt; i++) {
+				Slice s = ret.get(b.getInt());
+				String struct = STRUCTURES[b.get()];
+				P2 p = new P2(b.getDouble(), b.getDouble());
+				List<P2> ps = s.nameToSeedPoints.get(struct);
+				if (ps == null) {
+					ps = new Vector<>();
+					s.nameToSeedPoints.put(struct, ps);
+				}
+				ps.add(p);
+			}
+			cnt = b.getInt();
+			for (int i = 0; i < cnt; i++) {
+				Slice s = ret.get(b.getInt());
+				String struct = STRUCTURES[b.get()];
+				byte type = b.get();
+				int pointCnt = b.getInt();
+				double[] xs = new double[pointCnt];
+				double[] ys = new double[pointCnt];
+				for (int j = 0; j < pointCnt; j++) {
+					if (type == SHORT_COORDS) {
+						xs[j] = b.getShort();
+						ys[j] = b.getShort();
+					}
+					else if (type == INT_COORDS) {
+						xs[j] = b.getInt();
+						ys[j] = b.getInt();
+					}
+					else {
+						xs[j] = b.getDouble();
+						ys[j] = b.getDouble();
+					}
+				}
+				List<Polygon> ps = s.nameToTruthPolygons.get(struct);
+				if (ps == null) {
+					ps = new Vector<>();
+					s.nameToTruthPolygons.put(struct, ps);
+				}
+				ps.add(new Polygon(xs, ys));
+			}
+			if (version >= 2) {
+				cnt = b.getInt();
+				for (int i = 0; i < cnt; i++) {
+					Slice s = ret.get(b.getInt());
+					s.setTruthMask(b.get(), RunMask.read(b));
+				}
+			}
+			return ret;
+		}
+	}
+}
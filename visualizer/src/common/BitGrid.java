@@ -0,0 +1,132 @@
+package common;
+
+/**
+ * A rectangular grid of on/off samples packed into long[] rows, used to rasterize polygons.
+ * Coordinates are in sample units: a pixel is split into ss x ss samples, sample (c, r)
+ * is centered on pixel coordinates ((c + 0.5) / ss, (r + 0.5) / ss).
+ * The grid covers columns [x0, x0 + cols) and rows [y0, y0 + rows).
+ */
+public class BitGrid {
+	public final int x0, y0, cols, rows, ss;
+	public final int words; // longs per row
+	public final long[] bits;
+	
+	// scan-line scratch space
+	private int[] rowStart;
+	private double[] cross = new double[64];
+	
+	public BitGrid(int x0, int y0, int cols, int rows, int ss) {
+		this.x0 = x0; this.y0 = y0;
+		this.cols = Math.max(0, cols);
+		this.rows = Math.max(0, rows);
+		this.ss = ss;
+		words = (this.cols + 63) >>> 6;
+		bits = new long[words * this.rows];
+	}
+	
+	/**
+	 * Sets the samples that fall inside the polygon, using the even-odd rule like Polygon.shape.
+	 * Samples already set are kept, so filling several polygons gives their union.
+	 */
+	public void fill(Polygon p) {
+		double[] xs = p.xs;
+		double[] ys = p.ys;
+		int n = xs.length;
+		if (n < 3 || rows == 0 || cols == 0) return;
+		int rLo = Math.max(y0, firstSample(p.miny));
+		int rHi = Math.min(y0 + rows, firstSample(p.maxy));
+		if (rHi <= rLo) return;
+		int rowCnt = rHi - rLo;
+		if (rowStart == null || rowStart.length < rowCnt + 1) rowStart = new int[rows + 1];
+		for (int r = 0; r <= rowCnt; r++) rowStart[r] = 0;
+		
+		// first pass: count edge crossings per row
+		for (int i = 0; i < n; i++) {
+			int j = i == n-1 ? 0 : i+1;
+			if (ys[i] == ys[j]) continue;
+			int r0 = Math.max(rLo, firstSample(Math.min(ys[i], ys[j])));
+			int r1 = Math.min(rHi, firstSample(Math.max(ys[i], ys[j])));
+			for (int r = r0; r < r1; r++) rowStart[r - rLo + 1]++;
+		}
+		for (int r = 0; r < rowCnt; r++) rowStart[r + 1] += rowStart[r];
+		int total = rowStart[rowCnt];
+		if (cross.length < total) cross = new double[total];
+		
+		// second pass: store crossing x coordinates (in sample units), bucketed by row
+		int[] pos = new int[rowCnt];
+		for (int i = 0; i < n; i++) {
+			int j = i == n-1 ? 0 : i+1;
+			if (ys[i] == ys[j]) continue;
+			int r0 = Math.max(rLo, firstSample(Math.min(ys[i], ys[j])));
+			int r1 = Math.min(rHi, firstSample(Math.max(ys[i], ys[j])));
+			double slope = (xs[j] - xs[i]) / (ys[j] - ys[i]);
+			for (int r = r0; r < r1; r++) {
+				double yc = (r + 0.5) / ss;
+				int k = r - rLo;
+				cross[rowStart[k] + pos[k]++] = (xs[i] + (yc - ys[i]) * slope) * ss;
+			}
+		}
+		
+		// fill spans between crossing pairs
+		for (int k = 0; k < rowCnt; k++) {
+			int from = rowStart[k];
+			int to = rowStart[k + 1];
+			sort(cross, from, to);
+			int rowOffset = (rLo + k - y0) * words;
+			for (int i = from; i + 1 < to; i += 2) {
+				int c0 = Math.max(0, (int)Math.ceil(cross[i] - 0.5) - x0);
+				int c1 = Math.min(cols, (int)Math.ceil(cross[i+1] - 0.5) - x0);
+				if (c0 < c1) setRange(rowOffset, c0, c1);
+			}
+		}
+	}
+	
+	// index of the first sample row (or column) whose center is at or after v
+	private int firstSample(double v) {
+		return (int)Math.ceil(v * ss - 0.5);
+	}
+	
+	// sets columns [c0, c1) of the row that starts at the given offset
+	private void setRange(int rowOffset, int c0, int c1) {
+		int w0 = c0 >>> 6;
+		int w1 = (c1 - 1) >>> 6;
+		long first = -1L << (c0 & 63);
+		long last = -1L >>> (63 - ((c1 - 1) & 63));
+		if (w0 == w1) {
+			bits[rowOffset + w0] |= first & last;
+			return;
+		}
+		bits[rowOffset + w0] |= first;
+		for (int w = w0 + 1; w < w1; w++) bits[rowOffset + w] = -1L;
+		bits[rowOffset + w1] |= last;
+	}
+	
+	// insertion sort, there are only a few crossings per row
+	private static void sort(double[] a, int from, int to) {
+		for (int i = from + 1; i < to; i++) {
+			double v = a[i];
+			int j = i - 1;
+			while (j >= from && a[j] > v) {
+				a[j + 1] = a[j];
+				j--;
+			}
+			a[j + 1] = v;
+		}
+	}
+	
+	/**
+	 * Counts {a and b, b and not a, a and not b} samples of two grids of the same geometry,
+	 * i.e. {tp, fp, fn} if a is the truth and b is the solution.
+	 */
+	public static long[] compare(BitGrid a, BitGrid b) {
+		long tp = 0, fp = 0, fn = 0;
+		for (int i = 0; i < a.bits.length; i++) {
+			long t = a.bits[i];
+			long s = b.bits[i];
+			tp += Long.bitCount(t & s);
+			fp += Long.bitCount(s & ~t);
+			fn += Long.bitCount(t & ~s);
+		}
+		return new long[] {tp, fp, fn};
+	}
+}
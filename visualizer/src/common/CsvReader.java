@@ -0,0 +1,238 @@
+package common;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Streaming reader of comma separated text files that works directly on the bytes of a
+ * buffered file channel. Lines and fields are only positions in the buffer, numbers are
+ * decoded in place, Strings are created only when asked for (new ids, error messages).
+ * Like the line.replace(" ", "") based parsing it replaces, it ignores all spaces.
+ * Other separators and ignored characters can be given for similar line based formats.
+ */
+public class CsvReader {
+
+	private static final double[] POW10 = new double[23]; // exactly representable powers of ten
+	static {
+		POW10[0] = 1;
+		for (int i = 1; i < POW10.length; i++) POW10[i] = POW10[i-1] * 10;
+	}
+	private static final long MAX_EXACT = 1L << 53;
+
+	private final FileChannel channel;
+	private final byte separator;
+	private final boolean[] ignored = new boolean[256];
+	private byte[] buf = new byte[1 << 16];
+	private int limit = 0;        // end of valid data in buf
+	private boolean eof = false;
+	private boolean skipLF = false; // last line ended with \r
+
+	private int lineStart, lineEnd; // current line is [lineStart, lineEnd)
+	private boolean empty;
+	private int next;               // start of the next line in buf
+	private int fieldStart, fieldEnd = -1; // current field is [fieldStart, fieldEnd)
+	public int lineNo = 0;
+
+	public CsvReader(File f) throws IOException {
+		this(f, ',', " ");
+	}
+
+	/**
+	 * Reads fields separated by the given character, the ignored characters are removed
+	 * from each line before it is split.
+	 */
+	public CsvReader(File f, char separator, String ignored) throws IOException {
+		this.separator = (byte) separator;
+		for (int i = 0; i < ignored.length(); i++) this.ignored[ignored.charAt(i) & 0xff] = true;
+		channel = new FileInputStream(f).getChannel();
+	}
+
+	/**
+	 * Moves to the next line, returns false at the end of the file.
+	 */
+	public boolean nextLine() throws IOException {
+		int p = next;
+		while (true) {
+			if (skipLF && p < limit) {
+				if (buf[p] == '\n') p++;
+				skipLF = false;
+			}
+			int end = p;
+			while (end < limit && buf[end] != '\n' && buf[end] != '\r') end++;
+			if (end < limit || (eof && end > p)) { // found a full line
+				lineNo++;
+				lineStart = p;
+				if (end < limit) {
+					skipLF = buf[end] == '\r';
+					next = end + 1;
+				}
+				else {
+					next = end;
+				}
+				lineEnd = removeIgnored(p, end);
+				empty = lineEnd == lineStart;
+				// trailing empty fields are dropped, like String.split does
+				while (lineEnd > lineStart && buf[lineEnd - 1] == separator) lineEnd--;
+				fieldEnd = lineStart - 1;
+				return true;
+			}
+			if (eof) return false;
+			p = fill(p);
+		}
+	}
+
+	// moves the unread data starting at p to the front of the buffer and reads more, returns the new p
+	private int fill(int p) throws IOException {
+		int remaining = limit - p;
+		if (p == 0 && remaining == buf.length) { // line doesn't fit
+			byte[] b = new byte[buf.length * 2];
+			System.arraycopy(buf, 0, b, 0, remaining);
+			buf = b;
+		}
+		else {
+			System.arraycopy(buf, p, buf, 0, remaining);
+		}
+		limit = remaining;
+		ByteBuffer bb = ByteBuffer.wrap(buf, limit, buf.length - limit);
+		int n = channel.read(bb);
+		if (n < 0) eof = true;
+		else limit += n;
+		return 0;
+	}
+
+	// compacts [from, to) in place, returns the new end
+	private int removeIgnored(int from, int to) {
+		int w = from;
+		for (int r = from; r < to; r++) {
+			byte b = buf[r];
+			if (!ignored[b & 0xff]) buf[w++] = b;
+		}
+		return w;
+	}
+
+	public boolean isEmpty() {
+		return empty;
+	}
+
+	/**
+	 * If the line starts with the given character then skips it and returns true.
+	 */
+	public boolean skip(char c) {
+		if (lineStart < lineEnd && buf[lineStart] == c) {
+			lineStart++;
+			fieldEnd = lineStart - 1;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Moves to the next field of the line, returns false if there are no more fields.
+	 */
+	public boolean nextField() {
+		int p = fieldEnd + 1;
+		if (p > lineEnd) return false;
+		fieldStart = p;
+		while (p < lineEnd && buf[p] != separator) p++;
+		fieldEnd = p;
+		return true;
+	}
+
+	/**
+	 * Returns true if the current field is followed by another one.
+	 */
+	public boolean hasNextField() {
+		return fieldEnd < lineEnd;
+	}
+
+	public boolean isFieldEmpty() {
+		return fieldEnd == fieldStart;
+	}
+
+	public boolean fieldEquals(byte[] b) {
+		if (b == null || fieldEnd - fieldStart != b.length) return false;
+		for (int i = 0; i < b.length; i++) {
+			if (buf[fieldStart + i] != b[i]) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the index of the current field's value in the given list, or -1.
+	 */
+	public int fieldIndex(byte[][] values) {
+		for (int i = 0; i < values.length; i++) {
+			if (fieldEquals(values[i])) return i;
+		}
+		return -1;
+	}
+
+	public String fieldString() {
+		return new String(buf, fieldStart, fieldEnd - fieldStart, StandardCharsets.UTF_8);
+	}
+
+	public String lineString() {
+		return new String(buf, lineStart, lineEnd - lineStart, StandardCharsets.UTF_8);
+	}
+
+	public int fieldInt() {
+		int p = fieldStart;
+		boolean neg = p < fieldEnd && buf[p] == '-';
+		if (neg) p++;
+		int len = fieldEnd - p;
+		if (len == 0 || len > 9) return Integer.parseInt(fieldString());
+		int v = 0;
+		for (; p < fieldEnd; p++) {
+			int d = buf[p] - '0';
+			if (d < 0 || d > 9) return Integer.parseInt(fieldString());
+			v = v * 10 + d;
+		}
+		return neg ? -v : v;
+	}
+
+	/**
+	 * Parses the current field as a double. Plain decimal numbers that can be converted
+	 * with a single correctly rounded operation are decoded in place, anything else goes
+	 * through Double.parseDouble, so the result is always the same as that of parseDouble.
+	 */
+	public double fieldDouble() {
+		int p = fieldStart;
+		boolean neg = p < fieldEnd && buf[p] == '-';
+		if (neg) p++;
+		long mantissa = 0;
+		int digits = 0;
+		int fracDigits = 0;
+		boolean dot = false;
+		for (; p < fieldEnd; p++) {
+			byte b = buf[p];
+			if (b == '.' && !dot) {
+				dot = true;
+				continue;
+			}
+			int d = b - '0';
+			if (d < 0 || d > 9 || digits >= 18) return Double.parseDouble(fieldString());
+			mantissa = mantissa * 10 + d;
+			if (mantissa > 0) digits++;
+			if (dot) fracDigits++;
+		}
+		int len = fieldEnd - fieldStart - (neg ? 1 : 0) - (dot ? 1 : 0);
+		if (len == 0 || mantissa >= MAX_EXACT || fracDigits >= POW10.length) {
+			return Double.parseDouble(fieldString());
+		}
+		double v = fracDigits == 0 ? mantissa : mantissa / POW10[fracDigits];
+		return neg ? -v : v;
+	}
+
+	public void close() {
+		try {
+			channel.close();
+		}
+		catch (IOException e) {
+			// nothing
+		}
+	}
+}
@@ -0,0 +1,89 @@
+package common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Custom Java Flight Recorder event "common.Phase" for the timed phases of PhaseStats, so
+ * that they show up in recordings next to GC and JIT activity, e.g. with
+ *   java -XX:StartFlightRecording=filename=rec.jfr ...
+ *   jfr print --events common.Phase rec.jfr
+ * The event type is created through jdk.jfr.EventFactory by reflection, the code still runs
+ * on JREs without JFR, where nothing is emitted. Events are created only while a recording
+ * that includes them is running. The check for that runs on every timed phase, so it goes
+ * through a method handle bound once instead of reflection.
+ */
+class JfrPhaseEvent {
+	private static Object factory;         // jdk.jfr.EventFactory, null if JFR isn't available
+	private static Method newEvent, set, commit;
+	private static final MethodHandle IS_ENABLED = init(); // EventType.isEnabled of the event, or null
+
+	private static MethodHandle init() {
+		try {
+			Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+			Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+			Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+			Constructor<?> descriptor = descriptorClass.getConstructor(Class.class, String.class, List.class);
+			List<Object> eventAnnotations = Arrays.asList(
+					annotation.newInstance(Class.forName("jdk.jfr.Name"), "common.Phase"),
+					annotation.newInstance(Class.forName("jdk.jfr.Label"), "Phase"),
+					annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {"Scorer"}));
+			List<Object> fields = new ArrayList<>();
+			fields.add(descriptor.newInstance(String.class, "phase", new ArrayList<>()));
+			fields.add(descriptor.newInstance(String.class, "structure", new ArrayList<>()));
+			fields.add(descriptor.newInstance(String.class, "scan", new ArrayList<>()));
+			fields.add(descriptor.newInstance(int.class, "slice", new ArrayList<>()));
+			fields.add(descriptor.newInstance(int.class, "vertices", new ArrayList<>()));
+			fields.add(descriptor.newInstance(long.class, "time",
+					Arrays.asList(annotation.newInstance(Class.forName("jdk.jfr.Timespan"), "NANOSECONDS"))));
+
+			Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+			Object f = factoryClass.getMethod("create", List.class, List.class).invoke(null, eventAnnotations, fields);
+			Object eventType = factoryClass.getMethod("getEventType").invoke(f);
+			MethodHandle ret = MethodHandles.publicLookup().unreflect(Class.forName("jdk.jfr.EventType").getMethod("isEnabled")).bindTo(eventType);
+			newEvent = factoryClass.getMethod("newEvent");
+			Class<?> eventClass = Class.forName("jdk.jfr.Event");
+			set = eventClass.getMethod("set", int.class, Object.class);
+			commit = eventClass.getMethod("commit");
+			factory = f;
+			return ret;
+		}
+		catch (Throwable e) { // no JFR, e.g. Java 7 or 8
+			return null;
+		}
+	}
+
+	static boolean isEnabled() {
+		if (IS_ENABLED == null) return false;
+		try {
+			return (boolean) IS_ENABLED.invokeExact();
+		}
+		catch (Throwable e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Emits an event, scan is null and slice and vertices are 0 for phases that aren't about a slice.
+	 */
+	static void commit(String phase, String structure, String scan, int slice, int vertices, long nanos) {
+		try {
+			Object event = newEvent.invoke(factory);
+			set.invoke(event, 0, phase);
+			set.invoke(event, 1, structure);
+			set.invoke(event, 2, scan);
+			set.invoke(event, 3, slice);
+			set.invoke(event, 4, vertices);
+			set.invoke(event, 5, nanos);
+			commit.invoke(event);
+		}
+		catch (Exception e) {
+			// nothing, profiling must not break scoring
+		}
+	}
+}
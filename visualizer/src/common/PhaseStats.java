@@ -0,0 +1,353 @@
+package common;
+
+import static common.Polygon.STRUCTURES;
+import static common.Utils.f;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Timing of the phases of scoring and loading (parsing, polygon construction, unions, ...),
+ * per structure where that makes sense: call counts, total time and a latency histogram with
+ * power of two buckets, plus named counters and the slowest slices. All methods can be
+ * called from several threads, recording is a few atomic increments. Written as stats.json
+ * and stats.prom (Prometheus text format), each timing is also a JFR event if a recording
+ * is running, see JfrPhaseEvent.
+ */
+public class PhaseStats {
+	public static final int ALL = -1; // structure index of phases that aren't per structure
+	private static final int BUCKETS = 40; // bucket b counts times in (2^(b-1), 2^b] ns, the last one all longer ones
+
+	private static class Timer {
+		final AtomicLong count = new AtomicLong();
+		final AtomicLong nanos = new AtomicLong();
+		final AtomicLong max = new AtomicLong();
+		final AtomicLongArray histogram = new AtomicLongArray(BUCKETS);
+
+		void add(long t) {
+			count.incrementAndGet();
+			nanos.addAndGet(t);
+			long m = max.get();
+			while (t > m && !max.compareAndSet(m, t)) m = max.get();
+			histogram.incrementAndGet(bucket(t));
+		}
+
+		// the upper bound 2^b is in bucket b, as Prometheus buckets count times <= le
+		static int bucket(long t) {
+			return t <= 1 ? 0 : Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(t - 1));
+		}
+
+		// upper bound of the bucket that holds the given fraction of the times, at most the max, in ns
+		long percentile(double p) {
+			long target = (long)Math.ceil(p * count.get());
+			long sum = 0;
+			for (int b = 0; b < BUCKETS; b++) {
+				sum += histogram.get(b);
+				if (sum >= target) return b == BUCKETS - 1 ? max.get() : Math.min(1L << b, max.get());
+			}
+			return max.get();
+		}
+	}
+
+	private static class SliceTime {
+		final String scan, structure;
+		final int slice, vertices;
+		final long nanos;
+
+		SliceTime(String scan, int slice, String structure, int vertices, long nanos) {
+			this.scan = scan; this.slice = slice; this.structure = structure;
+			this.vertices = vertices; this.nanos = nanos;
+		}
+	}
+
+	private final int topN;
+	private final Map<String, Timer[]> phaseToTimers = new ConcurrentHashMap<>(); // by structure index, ALL last
+	private final List<String> phases = new ArrayList<>(); // in order of first use
+	private final Map<String, AtomicLong> counters = new ConcurrentHashMap<>();
+	private final List<String> counterNames = new ArrayList<>();
+	private final PriorityQueue<SliceTime> slowest; // fastest of the slowest first
+	private volatile long slowestMin = 0; // a slice must take longer than this to get in, once slowest is full
+	private long start = System.nanoTime();
+
+	/**
+	 * Keeps the topN slowest slices.
+	 */
+	public PhaseStats(int topN) {
+		this.topN = Math.max(1, topN);
+		slowest = new PriorityQueue<>(this.topN, new Comparator<SliceTime>() {
+			@Override
+			public int compare(SliceTime a, SliceTime b) {
+				return Long.compare(a.nanos, b.nanos);
+			}
+		});
+	}
+
+	/**
+	 * Records a phase that took the given time, struct is an index into STRUCTURES or ALL.
+	 */
+	public void add(String phase, int struct, long nanos) {
+		timers(phase)[struct == ALL ? STRUCTURES.length : struct].add(nanos);
+		if (JfrPhaseEvent.isEnabled()) JfrPhaseEvent.commit(phase, structureName(struct), null, 0, 0, nanos);
+	}
+
+	/**
+	 * Records the scoring of one structure on a slice, slice is the 1-based ordinal.
+	 */
+	public void slice(String phase, String scan, int slice, int struct, int vertices, long nanos) {
+		timers(phase)[struct == ALL ? STRUCTURES.length : struct].add(nanos);
+		count("slices", 1);
+		count("vertices", vertices);
+		if (JfrPhaseEvent.isEnabled()) JfrPhaseEvent.commit(phase, structureName(struct), scan, slice, vertices, nanos);
+		if (nanos <= slowestMin) return;
+		synchronized (slowest) {
+			slowest.add(new SliceTime(scan, slice, structureName(struct), vertices, nanos));
+			if (slowest.size() > topN) slowest.poll();
+			if (slowest.size() == topN) slowestMin = slowest.peek().nanos;
+		}
+	}
+
+	public void count(String counter, long n) {
+		AtomicLong c = counters.get(counter);
+		if (c == null) {
+			synchronized (counterNames) {
+				c = counters.get(counter);
+				if (c == null) {
+					c = new AtomicLong();
+					counters.put(counter, c);
+					counterNames.add(counter);
+				}
+			}
+		}
+		c.addAndGet(n);
+	}
+
+	private Timer[] timers(String phase) {
+		Timer[] ret = phaseToTimers.get(phase);
+		if (ret == null) {
+			synchronized (phases) {
+				ret = phaseToTimers.get(phase);
+				if (ret == null) {
+					ret = new Timer[STRUCTURES.length + 1];
+					for (int i = 0; i < ret.length; i++) ret[i] = new Timer();
+					phaseToTimers.put(phase, ret);
+					phases.add(phase);
+				}
+			}
+		}
+		return ret;
+	}
+
+	private static String structureName(int struct) {
+		return struct == ALL ? "all" : STRUCTURES[struct];
+	}
+
+	/**
+	 * Forgets everything recorded so far, not to be called while recording.
+	 */
+	public void reset() {
+		synchronized (phases) {
+			phaseToTimers.clear();
+			phases.clear();
+		}
+		synchronized (counterNames) {
+			counters.clear();
+			counterNames.clear();
+		}
+		synchronized (slowest) {
+			slowest.clear();
+			slowestMin = 0;
+		}
+		start = System.nanoTime();
+	}
+
+	private List<SliceTime> slowestSlices() {
+		List<SliceTime> ret;
+		synchronized (slowest) {
+			ret = new ArrayList<>(slowest);
+		}
+		Collections.sort(ret, Collections.reverseOrder(slowest.comparator()));
+		return ret;
+	}
+
+	/**
+	 * Returns the non-empty timers as {phase, structure index} pairs, in order of first use.
+	 */
+	private List<Object[]> usedTimers() {
+		List<Object[]> ret = new ArrayList<>();
+		List<String> names;
+		synchronized (phases) {
+			names = new ArrayList<>(phases);
+		}
+		for (String phase: names) {
+			Timer[] ts = phaseToTimers.get(phase);
+			for (int i = 0; i < ts.length; i++) {
+				if (ts[i].count.get() > 0) ret.add(new Object[] {phase, i == STRUCTURES.length ? ALL : i, ts[i]});
+			}
+		}
+		return ret;
+	}
+
+	private List<String> counterNames() {
+		synchronized (counterNames) {
+			return new ArrayList<>(counterNames);
+		}
+	}
+
+	/**
+	 * Writes stats.json and stats.prom into the given directory, metric names in stats.prom
+	 * start with prefix.
+	 */
+	public void write(File dir, String prefix) {
+		double seconds = (System.nanoTime() - start) / 1e9;
+		try {
+			PrintWriter out = new PrintWriter(new File(dir, "stats.json"));
+			out.println(json(seconds));
+			out.close();
+			out = new PrintWriter(new File(dir, "stats.prom"));
+			out.print(prometheus(prefix, seconds));
+			out.close();
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	private String json(double seconds) {
+		StringBuilder sb = new StringBuilder();
+		sb.append("{\n  \"seconds\": ").append(seconds).append(",\n");
+		sb.append("  \"counters\": {");
+		String sep = "";
+		List<String> names = counterNames();
+		for (String name: names) {
+			sb.append(sep).append("\n    ").append(quote(name)).append(": ").append(counters.get(name).get());
+			sep = ",";
+		}
+		sb.append("\n  },\n  \"throughput\": {");
+		sep = "";
+		for (String name: names) {
+			sb.append(sep).append("\n    ").append(quote(name + "PerSecond")).append(": ")
+					.append(seconds > 0 ? counters.get(name).get() / seconds : 0);
+			sep = ",";
+		}
+		sb.append("\n  },\n  \"phases\": [");
+		sep = "";
+		for (Object[] pt: usedTimers()) {
+			Timer t = (Timer) pt[2];
+			long n = t.count.get();
+			sb.append(sep).append("\n    {\"phase\": ").append(quote((String) pt[0]))
+					.append(", \"structure\": ").append(quote(structureName((Integer) pt[1])))
+					.append(", \"count\": ").append(n)
+					.append(", \"seconds\": ").append(t.nanos.get() / 1e9)
+					.append(", \"meanMicros\": ").append(t.nanos.get() / 1e3 / n)
+					.append(", \"p50Micros\": ").append(t.percentile(0.5) / 1e3)
+					.append(", \"p90Micros\": ").append(t.percentile(0.9) / 1e3)
+					.append(", \"p99Micros\": ").append(t.percentile(0.99) / 1e3)
+					.append(", \"maxMicros\": ").append(t.max.get() / 1e3)
+					.append(", \"histogram\": {");
+			String hsep = "";
+			for (int b = 0; b < BUCKETS; b++) { // upper bucket bound in ns : count
+				long c = t.histogram.get(b);
+				if (c == 0) continue;
+				sb.append(hsep).append('"').append(b == BUCKETS - 1 ? "+Inf" : "" + (1L << b)).append("\": ").append(c);
+				hsep = ", ";
+			}
+			sb.append("}}");
+			sep = ",";
+		}
+		sb.append("\n  ],\n  \"slowestSlices\": [");
+		sep = "";
+		for (SliceTime st: slowestSlices()) {
+			sb.append(sep).append("\n    {\"scan\": ").append(quote(st.scan))
+					.append(", \"slice\": ").append(st.slice)
+					.append(", \"structure\": ").append(quote(st.structure))
+					.append(", \"vertices\": ").append(st.vertices)
+					.append(", \"micros\": ").append(st.nanos / 1e3).append("}");
+			sep = ",";
+		}
+		sb.append("\n  ]\n}");
+		return sb.toString();
+	}
+
+	private static String quote(String s) {
+		return "\"" + s.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
+	}
+
+	// metric names may only have [a-zA-Z0-9_:], counters are named like truth-polygons
+	private static String metricName(String s) {
+		return s.replaceAll("[^a-zA-Z0-9_:]", "_");
+	}
+
+	private static String label(String s) {
+		return s.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+	}
+
+	private String prometheus(String prefix, double seconds) {
+		prefix = metricName(prefix);
+		StringBuilder sb = new StringBuilder();
+		sb.append("# HELP ").append(prefix).append("_run_seconds Time since the start of the run\n");
+		sb.append("# TYPE ").append(prefix).append("_run_seconds gauge\n");
+		sb.append(prefix).append("_run_seconds ").append(seconds).append('\n');
+		for (String name: counterNames()) {
+			String metric = prefix + "_" + metricName(name) + "_total";
+			sb.append("# TYPE ").append(metric).append(" counter\n");
+			sb.append(metric).append(' ').append(counters.get(name).get()).append('\n');
+		}
+
+		String metric = prefix + "_phase_seconds";
+		sb.append("# HELP ").append(metric).append(" Time spent in each phase\n");
+		sb.append("# TYPE ").append(metric).append(" histogram\n");
+		for (Object[] pt: usedTimers()) {
+			Timer t = (Timer) pt[2];
+			String labels = "phase=\"" + label((String) pt[0]) + "\",structure=\"" + structureName((Integer) pt[1]) + "\"";
+			long cumulative = 0;
+			for (int b = 0; b < BUCKETS - 1; b++) {
+				cumulative += t.histogram.get(b);
+				if (b < 10 || b % 2 == 1) continue; // 1 us to about a minute, factors of 4
+				sb.append(metric).append("_bucket{").append(labels).append(",le=\"").append((1L << b) / 1e9).append("\"} ")
+						.append(cumulative).append('\n');
+			}
+			sb.append(metric).append("_bucket{").append(labels).append(",le=\"+Inf\"} ").append(t.count.get()).append('\n');
+			sb.append(metric).append("_sum{").append(labels).append("} ").append(t.nanos.get() / 1e9).append('\n');
+			sb.append(metric).append("_count{").append(labels).append("} ").append(t.count.get()).append('\n');
+		}
+
+		metric = prefix + "_slowest_slice_seconds";
+		sb.append("# HELP ").append(metric).append(" The slowest slices\n");
+		sb.append("# TYPE ").append(metric).append(" gauge\n");
+		for (SliceTime st: slowestSlices()) {
+			sb.append(metric).append("{scan=\"").append(label(st.scan)).append("\",slice=\"").append(st.slice)
+					.append("\",structure=\"").append(st.structure).append("\",vertices=\"").append(st.vertices)
+					.append("\"} ").append(st.nanos / 1e9).append('\n');
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Returns a summary for the console: total time per phase and the slowest slices.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder("Phase times (ms):");
+		for (Object[] pt: usedTimers()) {
+			Timer t = (Timer) pt[2];
+			sb.append("\n  ").append(pt[0]).append(" ").append(structureName((Integer) pt[1])).append(":\t")
+					.append(f(t.nanos.get() / 1e6)).append("\t(").append(t.count.get()).append("x)");
+		}
+		List<SliceTime> sts = slowestSlices();
+		if (!sts.isEmpty()) sb.append("\nSlowest slices (ms, vertices):");
+		for (int i = 0; i < Math.min(5, sts.size()); i++) {
+			SliceTime st = sts.get(i);
+			sb.append("\n  ").append(st.scan).append(" #").append(st.slice).append(" ").append(st.structure)
+					.append(":\t").append(f(st.nanos / 1e6)).append("\t").append(st.vertices);
+		}
+		return sb.toString();
+	}
+}
@@ -12,55 +12,86 @@ public class Polygon { // closed shape of a certain structure type
 	
 	public double minx, miny, maxx, maxy;
 	public double area = 0;
-	public Area shape;
-	public P2[] points;		
+	public final double[] xs, ys; // vertex coordinates, vertex i is (xs[i], ys[i])
+	private volatile Area shape; // built on first use, most polygons never need it
 			
-	public Polygon(P2[] points) {
-		this.points = points;
+	public Polygon(double[] xs, double[] ys) {
+		this.xs = xs;
+		this.ys = ys;
 		makeBounds();
-		getShape();
 		getArea();
 	}
 	
+	public Polygon(P2[] points) {
+		this(xsOf(points), ysOf(points));
+	}
+	
+	private static double[] xsOf(P2[] points) {
+		double[] ret = new double[points.length];
+		for (int i = 0; i < points.length; i++) ret[i] = points[i].x;
+		return ret;
+	}
+	
+	private static double[] ysOf(P2[] points) {
+		double[] ret = new double[points.length];
+		for (int i = 0; i < points.length; i++) ret[i] = points[i].y;
+		return ret;
+	}
+	
+	public int size() {
+		return xs.length;
+	}
+	
 	private void makeBounds() {
 		minx = Double.MAX_VALUE;
 		miny = Double.MAX_VALUE;
 		maxx = -Double.MAX_VALUE;
 		maxy = -Double.MAX_VALUE;
-		for (P2 p: points) {
-			minx = Math.min(p.x, minx);
-			maxx = Math.max(p.x, maxx);
-			miny = Math.min(p.y, miny);
-			maxy = Math.max(p.y, maxy);
+		for (int i = 0; i < xs.length; i++) {
+			double x = xs[i];
+			double y = ys[i];
+			if (x < minx) minx = x;
+			if (x > maxx) maxx = x;
+			if (y < miny) miny = y;
+			if (y > maxy) maxy = y;
 		}
 	}
 	
 	public Area getShape() {
-		if (shape == null) {
-			Path2D path = new Path2D.Double();
-			path.setWindingRule(Path2D.WIND_EVEN_ODD);
-
-			int n = points.length;
-			path.moveTo(points[0].x, points[0].y);
-			for(int i = 1; i < n; ++i) {
-			   path.lineTo(points[i].x, points[i].y);
+		Area ret = shape;
+		if (ret == null) {
+			synchronized (this) {
+				ret = shape;
+				if (ret == null) {
+					Path2D path = new Path2D.Double();
+					path.setWindingRule(Path2D.WIND_EVEN_ODD);
+		
+					int n = xs.length;
+					path.moveTo(xs[0], ys[0]);
+					for(int i = 1; i < n; ++i) {
+					   path.lineTo(xs[i], ys[i]);
+					}
+					path.closePath();
+					ret = new Area(path);
+					shape = ret;
+				}
 			}
-			path.closePath();
-			shape = new Area(path);
 		}
-		return shape;
+		return ret;
 	}
 	
 	private void getArea() {
 		// unsigned area calculated from the points
 		double a = 0;
-		int n = points.length;
+		int n = xs.length;
 		for (int i = 1; i < n; i++) {
-			a += (points[i-1].x + points[i].x) * (points[i-1].y - points[i].y);
+			a += (xs[i-1] + xs[i]) * (ys[i-1] - ys[i]);
 		}
-		// process last segment if ring is not closed
-		if (!points[0].equals(points[n-1])) {
-			a += (points[n-1].x + points[0].x) * (points[n-1].y - points[0].y);
+		// process last segment if ring is not closed (same tolerance as P2.equals)
+		double dx = xs[0] - xs[n-1];
+		double dy = ys[0] - ys[n-1];
+		if (dx * dx + dy * dy >= 1e-6) {
+			a += (xs[n-1] + xs[0]) * (ys[n-1] - ys[0]);
 		}
 		area = Math.abs(a / 2);
 	}
@@ -0,0 +1,268 @@
+package common;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A pixel mask stored as sorted runs per row, e.g. the union of the contours of one structure
+ * on a slice. A pixel is in the mask of a polygon if its center is inside (even-odd rule), the
+ * same sampling as BitGrid without supersampling. Masks are immutable, union, intersection and
+ * area work by merging runs, in time linear in the number of runs.
+ *
+ * Row y0 + r has the runs [runs[2i], runs[2i+1]) of columns for rowStart[r] <= i < rowStart[r+1].
+ */
+public class RunMask {
+	public static final RunMask EMPTY = new RunMask(0, 0, new int[1], new int[0]);
+
+	public final int y0, rows;
+	public final int[] rowStart;
+	public final int[] runs;
+
+	private RunMask(int y0, int rows, int[] rowStart, int[] runs) {
+		this.y0 = y0;
+		this.rows = rows;
+		this.rowStart = rowStart;
+		this.runs = runs;
+	}
+
+	/**
+	 * Returns the union of the polygons' masks, clipped to [0, w) x [0, h) if w and h are positive.
+	 */
+	public static RunMask of(List<Polygon> polygons, int w, int h) {
+		RunMask ret = EMPTY;
+		if (polygons == null) return ret;
+		for (Polygon p: polygons) ret = union(ret, of(p, w, h));
+		return ret;
+	}
+
+	public static RunMask of(Polygon p, int w, int h) {
+		double[] xs = p.xs;
+		double[] ys = p.ys;
+		int n = xs.length;
+		if (n < 3) return EMPTY;
+		int rLo = firstSample(p.miny);
+		int rHi = firstSample(p.maxy);
+		if (w > 0 && h > 0) {
+			rLo = Math.max(0, rLo);
+			rHi = Math.min(h, rHi);
+		}
+		if (rHi <= rLo) return EMPTY;
+		int rowCnt = rHi - rLo;
+
+		// edge crossings by row, counted first, then stored
+		int[] crossStart = new int[rowCnt + 1];
+		for (int i = 0; i < n; i++) {
+			int j = i == n-1 ? 0 : i+1;
+			if (ys[i] == ys[j]) continue;
+			int r0 = Math.max(rLo, firstSample(Math.min(ys[i], ys[j])));
+			int r1 = Math.min(rHi, firstSample(Math.max(ys[i], ys[j])));
+			for (int r = r0; r < r1; r++) crossStart[r - rLo + 1]++;
+		}
+		for (int r = 0; r < rowCnt; r++) crossStart[r + 1] += crossStart[r];
+		double[] cross = new double[crossStart[rowCnt]];
+		int[] pos = new int[rowCnt];
+		for (int i = 0; i < n; i++) {
+			int j = i == n-1 ? 0 : i+1;
+			if (ys[i] == ys[j]) continue;
+			int r0 = Math.max(rLo, firstSample(Math.min(ys[i], ys[j])));
+			int r1 = Math.min(rHi, firstSample(Math.max(ys[i], ys[j])));
+			double slope = (xs[j] - xs[i]) / (ys[j] - ys[i]);
+			for (int r = r0; r < r1; r++) {
+				int k = r - rLo;
+				cross[crossStart[k] + pos[k]++] = xs[i] + (r + 0.5 - ys[i]) * slope;
+			}
+		}
+
+		// spans between crossing pairs, they don't overlap after sorting
+		int[] rowStart = new int[rowCnt + 1];
+		int[] runs = new int[cross.length];
+		int cnt = 0;
+		for (int k = 0; k < rowCnt; k++) {
+			int from = crossStart[k];
+			int to = crossStart[k + 1];
+			Arrays.sort(cross, from, to);
+			for (int i = from; i + 1 < to; i += 2) {
+				int c0 = (int)Math.ceil(cross[i] - 0.5);
+				int c1 = (int)Math.ceil(cross[i+1] - 0.5);
+				if (w > 0 && h > 0) {
+					c0 = Math.max(0, c0);
+					c1 = Math.min(w, c1);
+				}
+				if (c0 >= c1) continue;
+				if (cnt > 2 * rowStart[k] && runs[cnt - 1] == c0) { // touching spans
+					runs[cnt - 1] = c1;
+					continue;
+				}
+				runs[cnt++] = c0;
+				runs[cnt++] = c1;
+			}
+			rowStart[k + 1] = cnt / 2;
+		}
+		return new RunMask(rLo, rowCnt, rowStart, Arrays.copyOf(runs, cnt));
+	}
+
+	// index of the first pixel row (or column) whose center is at or after v
+	private static int firstSample(double v) {
+		return (int)Math.ceil(v - 0.5);
+	}
+
+	public boolean isEmpty() {
+		return runs.length == 0;
+	}
+
+	/**
+	 * Returns the number of pixels in the mask.
+	 */
+	public long area() {
+		long ret = 0;
+		for (int i = 0; i < runs.length; i += 2) ret += runs[i+1] - runs[i];
+		return ret;
+	}
+
+	public static RunMask union(RunMask a, RunMask b) {
+		if (a.isEmpty()) return b;
+		if (b.isEmpty()) return a;
+		return merge(a, b, true);
+	}
+
+	public static RunMask intersect(RunMask a, RunMask b) {
+		if (a.isEmpty() || b.isEmpty()) return EMPTY;
+		return merge(a, b, false);
+	}
+
+	/**
+	 * Returns {a and b, b and not a, a and not b} pixel counts, i.e. {tp, fp, fn} if a is
+	 * the truth and b the solution.
+	 */
+	public static long[] compare(RunMask a, RunMask b) {
+		long tp = intersect(a, b).area();
+		return new long[] {tp, b.area() - tp, a.area() - tp};
+	}
+
+	/**
+	 * Returns {tp, fp, fn} like compare(RunMask, RunMask), for a solution given as a grid without
+	 * supersampling, e.g. a decoded label mask. Counts whole words of the grid per run.
+	 */
+	public static long[] compare(RunMask a, BitGrid b) {
+		long tp = 0;
+		for (int r = 0; r < a.rows; r++) {
+			int gy = a.y0 + r - b.y0;
+			if (gy < 0 || gy >= b.rows) continue;
+			int offset = gy * b.words;
+			for (int i = a.rowStart[r]; i < a.rowStart[r + 1]; i++) {
+				int c0 = Math.max(0, a.runs[2*i] - b.x0);
+				int c1 = Math.min(b.cols, a.runs[2*i+1] - b.x0);
+				tp += countBits(b.bits, offset, c0, c1);
+			}
+		}
+		long sol = 0;
+		for (long word: b.bits) sol += Long.bitCount(word);
+		return new long[] {tp, sol - tp, a.area() - tp};
+	}
+
+	// set bits in columns [c0, c1) of the grid row starting at word offset
+	private static long countBits(long[] bits, int offset, int c0, int c1) {
+		if (c0 >= c1) return 0;
+		int w0 = c0 >>> 6;
+		int w1 = (c1 - 1) >>> 6;
+		long first = -1L << (c0 & 63);
+		long last = -1L >>> (63 - ((c1 - 1) & 63));
+		if (w0 == w1) return Long.bitCount(bits[offset + w0] & first & last);
+		long ret = Long.bitCount(bits[offset + w0] & first) + Long.bitCount(bits[offset + w1] & last);
+		for (int w = w0 + 1; w < w1; w++) ret += Long.bitCount(bits[offset + w]);
+		return ret;
+	}
+
+	// sweeps the boundaries of both rows in order, a column is in the result if it is in
+	// either (union) or both (intersection) masks
+	private static RunMask merge(RunMask a, RunMask b, boolean union) {
+		int y0 = union ? Math.min(a.y0, b.y0) : Math.max(a.y0, b.y0);
+		int y1 = union ? Math.max(a.y0 + a.rows, b.y0 + b.rows) : Math.min(a.y0 + a.rows, b.y0 + b.rows);
+		if (y1 <= y0) return EMPTY;
+		int rows = y1 - y0;
+		int[] rowStart = new int[rows + 1];
+		int[] runs = new int[a.runs.length + b.runs.length];
+		int cnt = 0;
+		int need = union ? 1 : 2;
+		for (int r = 0; r < rows; r++) {
+			int y = y0 + r;
+			int ia = a.rowFrom(y), ea = a.rowTo(y);
+			int ib = b.rowFrom(y), eb = b.rowTo(y);
+			int inside = 0; // number of masks the sweep is in
+			while (ia < ea || ib < eb) {
+				int va = ia < ea ? a.runs[ia] : Integer.MAX_VALUE;
+				int vb = ib < eb ? b.runs[ib] : Integer.MAX_VALUE;
+				int v;
+				boolean enter;
+				if (va <= vb) { // run starts are at even indexes, ends at odd ones
+					v = va;
+					enter = (ia & 1) == 0;
+					ia++;
+				}
+				else {
+					v = vb;
+					enter = (ib & 1) == 0;
+					ib++;
+				}
+				if (enter) {
+					inside++;
+					if (inside == need) {
+						if (cnt > 2 * rowStart[r] && runs[cnt - 1] == v) cnt--; // continues the last run
+						else runs[cnt++] = v;
+					}
+				}
+				else {
+					if (inside == need) {
+						if (runs[cnt - 1] == v) cnt--; // empty, one mask ends where the other starts
+						else runs[cnt++] = v;
+					}
+					inside--;
+				}
+			}
+			rowStart[r + 1] = cnt / 2;
+		}
+		return new RunMask(y0, rows, rowStart, Arrays.copyOf(runs, cnt));
+	}
+
+	// index into runs of the first and after the last boundary of row y
+	private int rowFrom(int y) {
+		int r = y - y0;
+		return r < 0 || r >= rows ? 0 : 2 * rowStart[r];
+	}
+
+	private int rowTo(int y) {
+		int r = y - y0;
+		return r < 0 || r >= rows ? 0 : 2 * rowStart[r + 1];
+	}
+
+	/**
+	 * Writes the mask: int y0, int rows, int run count, then per row a short run count, then
+	 * per run a short start and a short length.
+	 */
+	public void write(DataOutputStream out) throws IOException {
+		out.writeInt(y0);
+		out.writeInt(rows);
+		out.writeInt(runs.length / 2);
+		for (int r = 0; r < rows; r++) out.writeShort(rowStart[r + 1] - rowStart[r]);
+		for (int i = 0; i < runs.length; i += 2) {
+			out.writeShort(runs[i]);
+			out.writeShort(runs[i+1] - runs[i]);
+		}
+	}
+
+	public static RunMask read(ByteBuffer b) {
+		int y0 = b.getInt();
+		int rows = b.getInt();
+		int[] runs = new int[2 * b.getInt()];
+		int[] rowStart = new int[rows + 1];
+		for (int r = 0; r < rows; r++) rowStart[r + 1] = rowStart[r] + (b.getShort() & 0xffff);
+		for (int i = 0; i < runs.length; i += 2) {
+			runs[i] = b.getShort();
+			runs[i+1] = runs[i] + (b.getShort() & 0xffff);
+		}
+		return new RunMask(y0, rows, rowStart, runs);
+	}
+}
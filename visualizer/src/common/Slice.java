@@ -1,17 +1,41 @@
 package common;
 
+import static common.Polygon.STRUCTURES;
+
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 public class Slice {
 	public String id; // ordinal as string
 	public Map<String, List<Polygon>> nameToTruthPolygons = new HashMap<>();
 	public Map<String, List<Polygon>> nameToSolutionPolygons = new HashMap<>();
 	public Map<String, List<P2>> nameToSeedPoints = new HashMap<>(); // point coords in pixels
+	private final AtomicReferenceArray<RunMask> truthMasks = new AtomicReferenceArray<>(STRUCTURES.length);
+	
+	/**
+	 * Returns the mask of the truth polygons of a structure (index into STRUCTURES), clipped to
+	 * the w x h image. Built on first use, or set by the truth loader, and kept afterwards.
+	 */
+	public RunMask truthMask(int struct, int w, int h) {
+		RunMask ret = truthMasks.get(struct);
+		if (ret == null) {
+			ret = RunMask.of(nameToTruthPolygons.get(STRUCTURES[struct]), w, h);
+			if (!truthMasks.compareAndSet(struct, null, ret)) ret = truthMasks.get(struct);
+		}
+		return ret;
+	}
+	
+	/**
+	 * Sets a truth mask that was loaded with the truth polygons.
+	 */
+	public void setTruthMask(int struct, RunMask mask) {
+		truthMasks.set(struct, mask);
+	}
 	
 	@Override
 	public String toString() {
 		return id;
 	}
-}
\ No newline at end of file
+}
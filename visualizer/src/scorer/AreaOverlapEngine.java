@@ -0,0 +1,244 @@
+package scorer;
+
+import static common.Polygon.STRUCTURES;
+
+import java.awt.geom.Area;
+import java.awt.geom.Line2D;
+import java.awt.geom.PathIterator;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import common.PhaseStats;
+import common.Polygon;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Exact overlap calculation using java.awt.geom.Area unions and intersections.
+ * With pruning on, polygons are first grouped into clusters of overlapping bounding boxes
+ * (see BoundsIndex). Only clusters that contain both truth and solution polygons are
+ * intersected, the others only contribute the area of their union. Clusters are disjoint,
+ * so the result is the same as that of a single union and intersection, up to rounding.
+ * The union of all truth polygons of a slice and structure, its area and bounds are built
+ * on first use and kept for the lifetime of the engine, so scoring more solutions against
+ * the same truth only builds the solution side.
+ */
+public class AreaOverlapEngine implements OverlapEngine {
+	private final boolean prune;
+	private final AtomicInteger prunedSlices = new AtomicInteger();
+	private final AtomicInteger clippedSlices = new AtomicInteger();
+	private final AtomicInteger prunedClusters = new AtomicInteger();
+	private final AtomicInteger clippedClusters = new AtomicInteger();
+	public PhaseStats stats; // times of unions, intersections and area calculations are recorded if set
+	private final Map<Slice, AtomicReferenceArray<Union>> truthUnions = new ConcurrentHashMap<>(); // by structure index
+	
+	/**
+	 * Union of a list of polygons. Shared between threads, so shape must not be changed.
+	 */
+	private static class Union {
+		final List<Polygon> polygons;
+		final Area shape;
+		final double area;
+		final Rectangle2D bounds;
+		
+		Union(List<Polygon> polygons, Area shape, double area) {
+			this.polygons = polygons;
+			this.shape = shape;
+			this.area = area;
+			bounds = shape.getBounds2D();
+		}
+	}
+	
+	public AreaOverlapEngine() {
+		this(true);
+	}
+	
+	public AreaOverlapEngine(boolean prune) {
+		this.prune = prune;
+	}
+
+	@Override
+	public double[] overlap(Scan scan, Slice slice, String struct, List<Polygon> truth, List<Polygon> solution) {
+		int si = 0;
+		while (!STRUCTURES[si].equals(struct)) si++;
+		if (!prune) return clip(truthUnion(slice, si, truth), solution, si);
+		
+		List<Polygon> all = new ArrayList<>(truth.size() + solution.size());
+		all.addAll(truth);
+		all.addAll(solution);
+		int[] clusterOf = BoundsIndex.clusters(all);
+		int clusterCnt = clusterOf[all.size()];
+		if (clusterCnt == 1) { // everything is connected, same as without pruning
+			clippedSlices.incrementAndGet();
+			clippedClusters.incrementAndGet();
+			return clip(truthUnion(slice, si, truth), solution, si);
+		}
+		
+		List<List<Polygon>> clusterT = new ArrayList<>();
+		List<List<Polygon>> clusterS = new ArrayList<>();
+		for (int c = 0; c < clusterCnt; c++) {
+			clusterT.add(new ArrayList<Polygon>());
+			clusterS.add(new ArrayList<Polygon>());
+		}
+		for (int i = 0; i < all.size(); i++) {
+			boolean isTruth = i < truth.size();
+			(isTruth ? clusterT : clusterS).get(clusterOf[i]).add(all.get(i));
+		}
+		
+		double tp = 0, fp = 0, fn = 0;
+		boolean clipped = false;
+		for (int c = 0; c < clusterCnt; c++) {
+			List<Polygon> ts = clusterT.get(c);
+			List<Polygon> ss = clusterS.get(c);
+			if (ts.isEmpty()) {
+				fp += unionArea(ss, si);
+				prunedClusters.incrementAndGet();
+			}
+			else if (ss.isEmpty()) {
+				// Polygon.area can't be used here, it is wrong for self-intersecting contours
+				if (ts.size() > 1 && ts.size() == truth.size()) fn += truthUnion(slice, si, truth).area;
+				else fn += unionArea(ts, si);
+				prunedClusters.incrementAndGet();
+			}
+			else {
+				double[] r = clip(ts.size() == truth.size() ? truthUnion(slice, si, truth) : union(ts, "truth-union", si), ss, si);
+				tp += r[0];
+				fp += r[1];
+				fn += r[2];
+				clipped = true;
+				clippedClusters.incrementAndGet();
+			}
+		}
+		if (clipped) clippedSlices.incrementAndGet();
+		else prunedSlices.incrementAndGet();
+		return new double[] {tp, fp, fn};
+	}
+	
+	// returns the union of all truth polygons of the structure, building it on first use
+	private Union truthUnion(Slice slice, int si, List<Polygon> truth) {
+		AtomicReferenceArray<Union> unions = truthUnions.get(slice);
+		if (unions == null) {
+			truthUnions.putIfAbsent(slice, new AtomicReferenceArray<Union>(STRUCTURES.length));
+			unions = truthUnions.get(slice);
+		}
+		Union ret = unions.get(si);
+		if (ret == null || ret.polygons != truth) { // threads that get here at the same time all use the first one
+			Union u = union(truth, "truth-union", si);
+			ret = unions.compareAndSet(si, ret, u) ? u : unions.get(si);
+		}
+		return ret;
+	}
+	
+	private Union union(List<Polygon> polygons, String phase, int si) {
+		long t0 = time();
+		Area shape = new Area();
+		for (Polygon p: polygons) shape.add(p.getShape());
+		t0 = record(phase, si, t0);
+		// union areas are recalculated, polygon areas are wrong for self-intersecting contours
+		double a = area(shape);
+		record("area", si, t0);
+		return new Union(polygons, shape, a);
+	}
+	
+	private double[] clip(Union truth, List<Polygon> solution, int si) {
+		Union s = union(solution, "union", si);
+		if (!truth.bounds.intersects(s.bounds)) {
+			return new double[] {0, s.area, truth.area};
+		}
+		
+		long t0 = time();
+		Area shapeT = new Area(truth.shape); // shares the truth's curves, intersect replaces them
+		shapeT.intersect(s.shape);
+		t0 = record("intersect", si, t0);
+		double overlap = area(shapeT);
+		record("area", si, t0);
+		return new double[] {overlap, s.area - overlap, truth.area - overlap};
+	}
+	
+	private double unionArea(List<Polygon> polygons, int si) {
+		if (polygons.size() == 1) {
+			long t0 = time();
+			double ret = area(polygons.get(0).getShape());
+			record("area", si, t0);
+			return ret;
+		}
+		return union(polygons, "union", si).area;
+	}
+	
+	private long time() {
+		return stats == null ? 0 : System.nanoTime();
+	}
+	
+	// records the time since t0 if stats are on, returns the current time
+	private long record(String phase, int si, long t0) {
+		if (stats == null) return 0;
+		long t = System.nanoTime();
+		stats.add(phase, si, t - t0);
+		return t;
+	}
+	
+	@Override
+	public double area(Scan scan, Slice slice, String struct, List<Polygon> polygons, boolean truth) {
+		double ret = 0;
+		for (Polygon p: polygons) ret += p.area;
+		return ret;
+	}
+	
+	@Override
+	public String report() {
+		if (!prune) return null;
+		return "Overlap pruning: " + prunedSlices.get() + " slices pruned, " + clippedSlices.get() + " clipped" +
+				" (" + prunedClusters.get() + " clusters pruned, " + clippedClusters.get() + " clipped)";
+	}
+	
+	// based on http://stackoverflow.com/questions/2263272/how-to-calculate-the-area-of-a-java-awt-geom-area
+	public static double area(Area shape) {
+		PathIterator i = shape.getPathIterator(null);
+		double a = 0.0;
+        double[] coords = new double[6];
+        double startX = Double.NaN, startY = Double.NaN;
+        Line2D segment = new Line2D.Double(Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+        while (! i.isDone()) {
+            int segType = i.currentSegment(coords);
+            double x = coords[0], y = coords[1];
+            switch (segType) {
+            case PathIterator.SEG_CLOSE:
+                segment.setLine(segment.getX2(), segment.getY2(), startX, startY);
+                a += area(segment);
+                startX = startY = Double.NaN;
+                segment.setLine(Double.NaN, Double.NaN, Double.NaN, Double.NaN);
+                break;
+            case PathIterator.SEG_LINETO:
+                segment.setLine(segment.getX2(), segment.getY2(), x, y);
+                a += area(segment);
+                break;
+            case PathIterator.SEG_MOVETO:
+                startX = x;
+                startY = y;
+                segment.setLine(Double.NaN, Double.NaN, x, y);
+                break;
+            }
+            i.next();
+        }
+        if (Double.isNaN(a)) {
+            throw new IllegalArgumentException("PathIterator contains an open path");
+        } 
+        else {
+            return 0.5 * Math.abs(a);
+        }
+    }
+
+    private static double area(Line2D seg) {
+        return seg.getX1() * seg.getY2() - seg.getX2() * seg.getY1();
+    }
+    
+	@Override
+	public String toString() {
+		return prune ? "area" : "area-no-prune";
+	}
+}
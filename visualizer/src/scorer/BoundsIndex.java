@@ -0,0 +1,110 @@
+package scorer;
+
+import java.util.List;
+
+import common.Polygon;
+
+/**
+ * Groups polygons into clusters whose bounding boxes are connected by overlaps.
+ * Polygons of different clusters can't overlap, so clusters can be processed separately.
+ * Candidate pairs come from a uniform grid over the polygon bounds, cells are about the
+ * size of an average bounding box.
+ */
+public class BoundsIndex {
+	private static final int MAX_GRID_SIZE = 64; // max cells per row and column
+	
+	/**
+	 * Returns the cluster index of each polygon, clusters are numbered from 0.
+	 * The number of clusters is ret[polygons.size()].
+	 */
+	public static int[] clusters(List<Polygon> polygons) {
+		int n = polygons.size();
+		int[] parent = new int[n];
+		for (int i = 0; i < n; i++) parent[i] = i;
+		
+		if (n > 1) {
+			double minx = Double.MAX_VALUE;
+			double miny = Double.MAX_VALUE;
+			double maxx = -Double.MAX_VALUE;
+			double maxy = -Double.MAX_VALUE;
+			double sumSize = 0;
+			for (Polygon p: polygons) {
+				minx = Math.min(p.minx, minx);
+				maxx = Math.max(p.maxx, maxx);
+				miny = Math.min(p.miny, miny);
+				maxy = Math.max(p.maxy, maxy);
+				sumSize += (p.maxx - p.minx) + (p.maxy - p.miny);
+			}
+			double cell = Math.max(1, sumSize / (2 * n));
+			int gw = Math.min(MAX_GRID_SIZE, (int)((maxx - minx) / cell) + 1);
+			int gh = Math.min(MAX_GRID_SIZE, (int)((maxy - miny) / cell) + 1);
+			double cellW = (maxx - minx) / gw + 1e-9;
+			double cellH = (maxy - miny) / gh + 1e-9;
+			
+			// counting sort of (cell, polygon) entries
+			int[] cellStart = new int[gw * gh + 1];
+			int[][] ranges = new int[n][];
+			for (int i = 0; i < n; i++) {
+				Polygon p = polygons.get(i);
+				int cx0 = (int)((p.minx - minx) / cellW);
+				int cx1 = (int)((p.maxx - minx) / cellW);
+				int cy0 = (int)((p.miny - miny) / cellH);
+				int cy1 = (int)((p.maxy - miny) / cellH);
+				ranges[i] = new int[] {cx0, cx1, cy0, cy1};
+				for (int cy = cy0; cy <= cy1; cy++) for (int cx = cx0; cx <= cx1; cx++) {
+					cellStart[cy * gw + cx + 1]++;
+				}
+			}
+			for (int c = 0; c < gw * gh; c++) cellStart[c + 1] += cellStart[c];
+			int[] entries = new int[cellStart[gw * gh]];
+			int[] pos = new int[gw * gh];
+			for (int i = 0; i < n; i++) {
+				int[] r = ranges[i];
+				for (int cy = r[2]; cy <= r[3]; cy++) for (int cx = r[0]; cx <= r[1]; cx++) {
+					int c = cy * gw + cx;
+					entries[cellStart[c] + pos[c]++] = i;
+				}
+			}
+			
+			// pairs sharing a cell are merged if their bounds really overlap
+			for (int c = 0; c < gw * gh; c++) {
+				for (int a = cellStart[c]; a < cellStart[c + 1]; a++) {
+					Polygon pa = polygons.get(entries[a]);
+					for (int b = a + 1; b < cellStart[c + 1]; b++) {
+						Polygon pb = polygons.get(entries[b]);
+						if (pa.minx <= pb.maxx && pb.minx <= pa.maxx && 
+								pa.miny <= pb.maxy && pb.miny <= pa.maxy) {
+							union(parent, entries[a], entries[b]);
+						}
+					}
+				}
+			}
+		}
+		
+		int[] ret = new int[n + 1];
+		int[] clusterOfRoot = new int[n];
+		int cnt = 0;
+		for (int i = 0; i < n; i++) {
+			int root = find(parent, i);
+			if (root == i) clusterOfRoot[i] = cnt++;
+		}
+		for (int i = 0; i < n; i++) ret[i] = clusterOfRoot[find(parent, i)];
+		ret[n] = cnt;
+		return ret;
+	}
+	
+	private static int find(int[] parent, int i) {
+		while (parent[i] != i) {
+			parent[i] = parent[parent[i]];
+			i = parent[i];
+		}
+		return i;
+	}
+	
+	private static void union(int[] parent, int a, int b) {
+		a = find(parent, a);
+		b = find(parent, b);
+		if (a < b) parent[b] = a;
+		else if (b < a) parent[a] = b;
+	}
+}
@@ -0,0 +1,589 @@
+package scorer;
+
+import static common.Polygon.STRUCTURES;
+import static common.Utils.f;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.BitGrid;
+import common.Polygon;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Converts a directory of label masks, in the layout read by MaskScorer, into a solution file
+ * of Patient_1,100,struct,x1,y1,... lines.
+ *
+ * Contours are traced with marching squares on the pixel centers, their vertices are halfway
+ * between neighbouring pixel centers, so a polygon rasterized at pixel centers (as done by
+ * RasterOverlapEngine) selects exactly the pixels of the mask. Pixels touching only at a
+ * corner become separate polygons. A line can't hold a hole, so each hole is joined to its
+ * outer contour by a horizontal cut of zero width, which the even-odd rule of the scorer
+ * leaves out. Collinear vertices are always dropped, with a tolerance > 0 the contours are
+ * also simplified by Douglas-Peucker within that many pixels.
+ *
+ * Scans are converted in parallel, one scan per task, and written in order through a buffered
+ * writer. If a truth file is given, the written file is loaded back with Scorer.load and
+ * compared to the masks.
+ */
+public class MaskConverter {
+	public int threads = Runtime.getRuntime().availableProcessors();
+	public double tolerance = 0; // pixels, 0: no simplification
+
+	private final AtomicLong maskCnt = new AtomicLong();
+	private final AtomicLong polygonCnt = new AtomicLong();
+	private final AtomicLong vertexCnt = new AtomicLong();
+
+	/**
+	 * Writes the polygons of all masks in maskDir to out, the scans in the order of their ids.
+	 */
+	public void convert(File maskDir, File out) throws Exception {
+		long t0 = System.nanoTime();
+		List<String> scanIds = scanIds(maskDir);
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		Writer writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(out), StandardCharsets.UTF_8), 1 << 16);
+		try {
+			List<Future<String>> futures = new ArrayList<>();
+			for (final String id: scanIds) {
+				final File scanDir = MaskScorer.maskDir(maskDir, id);
+				futures.add(pool.submit(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						return convertScan(id, scanDir);
+					}
+				}));
+			}
+			for (Future<String> f: futures) {
+				try {
+					writer.write(f.get());
+				}
+				catch (ExecutionException e) {
+					throw (Exception) e.getCause();
+				}
+			}
+		}
+		finally {
+			writer.close();
+			pool.shutdownNow();
+		}
+		System.out.println("Converted " + maskCnt.get() + " masks of " + scanIds.size() + " scans to " + polygonCnt.get() +
+				" polygons with " + vertexCnt.get() + " vertices in " + (System.nanoTime() - t0) / 1000000 + " ms");
+	}
+
+	// subdirectories of the mask dir, sorted
+	private static List<String> scanIds(File maskDir) {
+		List<String> ret = new ArrayList<>();
+		File[] files = maskDir.listFiles();
+		if (files == null) return ret;
+		for (File f: files) {
+			if (f.isDirectory()) ret.add(f.getName());
+		}
+		Collections.sort(ret);
+		return ret;
+	}
+
+	// masks of a scan in slice order
+	private static List<File> sortedMasks(File scanDir) throws Exception {
+		List<File> ret = MaskScorer.maskFiles(scanDir);
+		Set<Integer> seen = new HashSet<>();
+		for (File f: ret) { // fails on a bad name or a slice given twice
+			if (!seen.add(MaskScorer.sliceOrdinal(f))) {
+				throw new IOException("Duplicate slice id found in mask directory: " + f.getPath());
+			}
+		}
+		Collections.sort(ret, new Comparator<File>() {
+			@Override
+			public int compare(File a, File b) {
+				try {
+					return Integer.compare(MaskScorer.sliceOrdinal(a), MaskScorer.sliceOrdinal(b));
+				}
+				catch (Exception e) {
+					return 0; // can't happen, all names were parsed above
+				}
+			}
+		});
+		return ret;
+	}
+
+	private String convertScan(String scanId, File scanDir) throws Exception {
+		StringBuilder sb = new StringBuilder();
+		for (File f: sortedMasks(scanDir)) {
+			int ordinal = MaskScorer.sliceOrdinal(f);
+			BitGrid[] grids = MaskScorer.decode(f);
+			maskCnt.incrementAndGet();
+			for (int si = 0; si < STRUCTURES.length; si++) {
+				if (grids[si] == null) continue;
+				for (double[][] ring: polygons(grids[si], tolerance)) {
+					sb.append(scanId).append(',').append(ordinal).append(',').append(STRUCTURES[si]);
+					double[] xs = ring[0];
+					double[] ys = ring[1];
+					for (int i = 0; i < xs.length; i++) {
+						sb.append(',').append(coord(xs[i])).append(',').append(coord(ys[i]));
+					}
+					sb.append('\n');
+					polygonCnt.incrementAndGet();
+					vertexCnt.addAndGet(xs.length);
+				}
+			}
+		}
+		return sb.toString();
+	}
+
+	// shortest exact form, vertices are mostly on a half pixel grid
+	private static String coord(double d) {
+		if (d == Math.rint(d)) return Long.toString((long) d);
+		return Double.toString(d);
+	}
+
+	/**
+	 * Returns the contours of the set pixels of a grid with ss 1, as {xs, ys} in pixel
+	 * coordinates, holes joined to the contour around them.
+	 */
+	static List<double[][]> polygons(BitGrid g, double tolerance) {
+		List<double[][]> outers = new ArrayList<>();
+		List<double[][]> holes = new ArrayList<>();
+		for (double[][] ring: trace(g)) {
+			double[][] r = tolerance > 0 ? simplify(ring, tolerance) : ring;
+			// traced with the inside on the left in image coordinates: outer contours have
+			// a negative signed area, holes a positive one
+			if (signedArea(r) < 0) outers.add(r);
+			else holes.add(r);
+		}
+		if (holes.isEmpty()) return outers;
+
+		// each hole goes into the smallest outer contour around it
+		List<List<double[][]>> outerHoles = new ArrayList<>();
+		double[] outerAreas = new double[outers.size()];
+		for (int i = 0; i < outers.size(); i++) {
+			outerHoles.add(new ArrayList<double[][]>());
+			outerAreas[i] = -signedArea(outers.get(i));
+		}
+		for (double[][] hole: holes) {
+			int best = -1;
+			for (int i = 0; i < outers.size(); i++) {
+				if ((best == -1 || outerAreas[i] < outerAreas[best]) && contains(outers.get(i), hole[0][0], hole[1][0])) best = i;
+			}
+			if (best != -1) outerHoles.get(best).add(hole);
+		}
+		List<double[][]> ret = new ArrayList<>();
+		for (int i = 0; i < outers.size(); i++) ret.add(joinHoles(outers.get(i), outerHoles.get(i)));
+		return ret;
+	}
+
+	/**
+	 * Marching squares on the pixel centers. Cell (cx, cy) has the corners (cx, cy), (cx+1, cy),
+	 * (cx+1, cy+1), (cx, cy+1), its edges are numbered in the same clockwise order, edge k going
+	 * from corner k to corner k+1. A contour enters the cell on an edge going from outside to
+	 * inside and leaves on the next edge going from inside to outside, so every crossing point is
+	 * entered by one cell and left by its neighbour, and the segments chain into closed rings.
+	 */
+	private static List<double[][]> trace(BitGrid g) {
+		List<double[][]> ret = new ArrayList<>();
+		// bounds of the set pixels
+		int minx = Integer.MAX_VALUE, miny = Integer.MAX_VALUE, maxx = -1, maxy = -1;
+		for (int y = 0; y < g.rows; y++) {
+			for (int wi = 0; wi < g.words; wi++) {
+				long word = g.bits[y * g.words + wi];
+				if (word == 0) continue;
+				if (y < miny) miny = y;
+				maxy = y;
+				minx = Math.min(minx, (wi << 6) + Long.numberOfTrailingZeros(word));
+				maxx = Math.max(maxx, (wi << 6) + 63 - Long.numberOfLeadingZeros(word));
+			}
+		}
+		if (maxx == -1) return ret;
+		int w = maxx - minx + 1;
+		int h = maxy - miny + 1;
+
+		// crossing points by key: between pixels (x, y) and (x+1, y) at 2 * (y * (w+1) + x + 1),
+		// between (x, y) and (x, y+1) at 2 * ((y+1) * (w+1) + x) + 1, in coordinates relative
+		// to minx, miny
+		int[] next = new int[2 * (w + 1) * (h + 1)];
+		Arrays.fill(next, -1);
+		int[] keys = new int[4];
+		boolean[] in = new boolean[4];
+		for (int cy = -1; cy < h; cy++) {
+			for (int cx = -1; cx < w; cx++) {
+				in[0] = isSet(g, minx, miny, w, h, cx, cy);
+				in[1] = isSet(g, minx, miny, w, h, cx + 1, cy);
+				in[2] = isSet(g, minx, miny, w, h, cx + 1, cy + 1);
+				in[3] = isSet(g, minx, miny, w, h, cx, cy + 1);
+				if (in[0] == in[1] && in[1] == in[2] && in[2] == in[3]) continue;
+				keys[0] = 2 * (cy * (w + 1) + cx + 1);
+				keys[1] = 2 * ((cy + 1) * (w + 1) + cx + 1) + 1;
+				keys[2] = 2 * ((cy + 1) * (w + 1) + cx + 1);
+				keys[3] = 2 * ((cy + 1) * (w + 1) + cx) + 1;
+				for (int k = 0; k < 4; k++) {
+					if (in[k] || !in[(k + 1) & 3]) continue; // not entering
+					int j = (k + 1) & 3;
+					while (!in[j] || in[(j + 1) & 3]) j = (j + 1) & 3;
+					next[keys[k]] = keys[j];
+				}
+			}
+		}
+
+		double[] xs = new double[64];
+		double[] ys = new double[64];
+		for (int start = 0; start < next.length; start++) {
+			if (next[start] == -1) continue;
+			int n = 0;
+			int key = start;
+			while (next[key] != -1) {
+				if (n == xs.length) {
+					xs = Arrays.copyOf(xs, 2 * n);
+					ys = Arrays.copyOf(ys, 2 * n);
+				}
+				int pos = key >>> 1;
+				int y = pos / (w + 1);
+				int x = pos % (w + 1);
+				if ((key & 1) == 0) { // between (x-1, y) and (x, y)
+					xs[n] = minx + x;
+					ys[n] = miny + y + 0.5;
+				}
+				else { // between (x, y-1) and (x, y)
+					xs[n] = minx + x + 0.5;
+					ys[n] = miny + y;
+				}
+				n++;
+				int k = next[key];
+				next[key] = -1;
+				key = k;
+			}
+			ret.add(dropCollinear(xs, ys, n));
+		}
+		return ret;
+	}
+
+	private static boolean isSet(BitGrid g, int minx, int miny, int w, int h, int x, int y) {
+		if (x < 0 || y < 0 || x >= w || y >= h) return false;
+		x += minx;
+		y += miny;
+		return (g.bits[y * g.words + (x >>> 6)] >>> (x & 63) & 1) != 0;
+	}
+
+	// keeps the vertices where the direction changes, exact on the half pixel grid
+	private static double[][] dropCollinear(double[] xs, double[] ys, int n) {
+		double[] rx = new double[n];
+		double[] ry = new double[n];
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			int p = i == 0 ? n - 1 : i - 1;
+			int q = i == n - 1 ? 0 : i + 1;
+			double cross = (xs[i] - xs[p]) * (ys[q] - ys[i]) - (ys[i] - ys[p]) * (xs[q] - xs[i]);
+			if (cross == 0) continue;
+			rx[m] = xs[i];
+			ry[m] = ys[i];
+			m++;
+		}
+		return new double[][] {Arrays.copyOf(rx, m), Arrays.copyOf(ry, m)};
+	}
+
+	/**
+	 * Douglas-Peucker on a closed ring, split at the first vertex and the one farthest from it.
+	 * Returns the ring unchanged if fewer than 3 vertices would be left.
+	 */
+	static double[][] simplify(double[][] ring, double tolerance) {
+		double[] xs = ring[0];
+		double[] ys = ring[1];
+		int n = xs.length;
+		if (n <= 3) return ring;
+		int far = 0;
+		double farD = -1;
+		for (int i = 1; i < n; i++) {
+			double d = (xs[i] - xs[0]) * (xs[i] - xs[0]) + (ys[i] - ys[0]) * (ys[i] - ys[0]);
+			if (d > farD) {
+				farD = d;
+				far = i;
+			}
+		}
+		boolean[] keep = new boolean[n + 1]; // index n is vertex 0 again
+		keep[0] = keep[far] = keep[n] = true;
+		int[] stack = new int[2 * (n + 1)];
+		int sp = 0;
+		stack[sp++] = 0; stack[sp++] = far;
+		stack[sp++] = far; stack[sp++] = n;
+		double t2 = tolerance * tolerance;
+		while (sp > 0) {
+			int b = stack[--sp];
+			int a = stack[--sp];
+			double ax = xs[a % n], ay = ys[a % n];
+			double dx = xs[b % n] - ax, dy = ys[b % n] - ay;
+			double len2 = dx * dx + dy * dy;
+			int worst = -1;
+			double worstD = t2;
+			for (int i = a + 1; i < b; i++) {
+				double px = xs[i] - ax, py = ys[i] - ay;
+				double d;
+				if (len2 == 0) {
+					d = px * px + py * py;
+				}
+				else {
+					double c = px * dy - py * dx;
+					d = c * c / len2;
+				}
+				if (d > worstD) {
+					worstD = d;
+					worst = i;
+				}
+			}
+			if (worst == -1) continue;
+			keep[worst] = true;
+			stack[sp++] = a; stack[sp++] = worst;
+			stack[sp++] = worst; stack[sp++] = b;
+		}
+		int m = 0;
+		for (int i = 0; i < n; i++) if (keep[i]) m++;
+		if (m < 3) return ring;
+		double[] rx = new double[m];
+		double[] ry = new double[m];
+		m = 0;
+		for (int i = 0; i < n; i++) {
+			if (!keep[i]) continue;
+			rx[m] = xs[i];
+			ry[m] = ys[i];
+			m++;
+		}
+		return new double[][] {rx, ry};
+	}
+
+	/**
+	 * Joins the holes to the outer ring, from left to right: a horizontal cut goes left from the
+	 * leftmost vertex of the hole to the nearest edge of the ring joined so far, holes further
+	 * right can't be in the way. The cut is walked in both directions, so it adds no area and
+	 * no scan line crossings.
+	 */
+	private static double[][] joinHoles(double[][] outer, List<double[][]> holes) {
+		if (holes.isEmpty()) return outer;
+		final double[] minXs = new double[holes.size()];
+		final int[] leftmost = new int[holes.size()];
+		Integer[] order = new Integer[holes.size()];
+		for (int i = 0; i < order.length; i++) {
+			double[] hx = holes.get(i)[0];
+			for (int k = 1; k < hx.length; k++) if (hx[k] < hx[leftmost[i]]) leftmost[i] = k;
+			minXs[i] = hx[leftmost[i]];
+			order[i] = i;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Double.compare(minXs[a], minXs[b]);
+			}
+		});
+
+		double[] xs = outer[0];
+		double[] ys = outer[1];
+		for (int hi: order) {
+			double[] hx = holes.get(hi)[0];
+			double[] hy = holes.get(hi)[1];
+			int k = leftmost[hi];
+			double vx = hx[k], vy = hy[k];
+			int n = xs.length;
+			int edge = -1;
+			double bestX = -Double.MAX_VALUE;
+			for (int i = 0; i < n; i++) {
+				int j = i == n - 1 ? 0 : i + 1;
+				if ((ys[i] <= vy) == (ys[j] <= vy)) continue;
+				double x = xs[i] + (vy - ys[i]) * (xs[j] - xs[i]) / (ys[j] - ys[i]);
+				if (x < vx && x > bestX) {
+					bestX = x;
+					edge = i;
+				}
+			}
+			if (edge == -1) continue; // not inside, can't happen for traced contours
+
+			// ring[0..edge], cut point, hole from k around to k, cut point, ring[edge+1..]
+			int m = hx.length;
+			double[] rx = new double[n + m + 3];
+			double[] ry = new double[n + m + 3];
+			int p = 0;
+			for (int i = 0; i <= edge; i++, p++) { rx[p] = xs[i]; ry[p] = ys[i]; }
+			rx[p] = bestX; ry[p] = vy; p++;
+			for (int i = 0; i <= m; i++, p++) { rx[p] = hx[(k + i) % m]; ry[p] = hy[(k + i) % m]; }
+			rx[p] = bestX; ry[p] = vy; p++;
+			for (int i = edge + 1; i < n; i++, p++) { rx[p] = xs[i]; ry[p] = ys[i]; }
+			xs = rx;
+			ys = ry;
+		}
+		return dropDuplicates(xs, ys);
+	}
+
+	// removes a vertex equal to the one before it, e.g. a cut that ends on a vertex
+	private static double[][] dropDuplicates(double[] xs, double[] ys) {
+		int n = xs.length;
+		double[] rx = new double[n];
+		double[] ry = new double[n];
+		int m = 0;
+		for (int i = 0; i < n; i++) {
+			int p = i == 0 ? n - 1 : i - 1;
+			if (xs[i] == xs[p] && ys[i] == ys[p]) continue;
+			rx[m] = xs[i];
+			ry[m] = ys[i];
+			m++;
+		}
+		return new double[][] {Arrays.copyOf(rx, m), Arrays.copyOf(ry, m)};
+	}
+
+	private static double signedArea(double[][] ring) {
+		double[] xs = ring[0];
+		double[] ys = ring[1];
+		double a = 0;
+		for (int i = 0, n = xs.length; i < n; i++) {
+			int j = i == n - 1 ? 0 : i + 1;
+			a += xs[i] * ys[j] - xs[j] * ys[i];
+		}
+		return a / 2;
+	}
+
+	// even-odd test, the point is never on the ring for traced contours
+	private static boolean contains(double[][] ring, double x, double y) {
+		double[] xs = ring[0];
+		double[] ys = ring[1];
+		boolean ret = false;
+		for (int i = 0, n = xs.length; i < n; i++) {
+			int j = i == n - 1 ? 0 : i + 1;
+			if ((ys[i] <= y) == (ys[j] <= y)) continue;
+			if (xs[i] + (y - ys[i]) * (xs[j] - xs[i]) / (ys[j] - ys[i]) > x) ret = !ret;
+		}
+		return ret;
+	}
+
+	/**
+	 * Loads the written solution with Scorer.load and compares it to the masks, slice by slice.
+	 * Prints per structure the mask pixels, the area of the polygons, their relative difference,
+	 * and the pixels that differ when the polygons are rasterized at pixel centers. At tolerance 0
+	 * no pixels differ, but the area is a bit smaller than the pixel count, as the contours cut
+	 * the outer corners of boundary pixels, relatively more so for small structures.
+	 */
+	public void verify(File maskDir, String truthPath, File solutionFile) throws Exception {
+		File outDir = solutionFile.getAbsoluteFile().getParentFile();
+		Scorer scorer = new Scorer();
+		final Solution solution = scorer.loadSolution(truthPath, solutionFile.getPath(), outDir.getPath());
+		if (solution == null) {
+			System.out.println("Round trip failed, see info.txt in " + outDir);
+			return;
+		}
+		List<Scan> scans = new ArrayList<>();
+		List<File> scanDirs = new ArrayList<>();
+		for (String id: scanIds(maskDir)) {
+			Scan scan = scorer.idToScan.get(id);
+			if (scan == null) continue; // reported by load as an unknown scan id
+			scans.add(scan);
+			scanDirs.add(MaskScorer.maskDir(maskDir, id));
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		double[][] totals = new double[STRUCTURES.length][3]; // mask pixels, polygon area, mismatched pixels
+		try {
+			List<Future<double[][]>> futures = new ArrayList<>();
+			for (int i = 0; i < scans.size(); i++) {
+				final Scan scan = scans.get(i);
+				final File scanDir = scanDirs.get(i);
+				futures.add(pool.submit(new Callable<double[][]>() {
+					@Override
+					public double[][] call() throws Exception {
+						return compare(scan, scanDir, solution);
+					}
+				}));
+			}
+			for (Future<double[][]> f: futures) {
+				double[][] r;
+				try {
+					r = f.get();
+				}
+				catch (ExecutionException e) {
+					throw (Exception) e.getCause();
+				}
+				for (int si = 0; si < STRUCTURES.length; si++) {
+					for (int i = 0; i < 3; i++) totals[si][i] += r[si][i];
+				}
+			}
+		}
+		finally {
+			pool.shutdownNow();
+		}
+		StringBuilder sb = new StringBuilder("Round trip at tolerance " + f(tolerance) + " px:\nstructure\tmask_px\tpolygon_area\tarea_error_%\tmismatch_px");
+		double[] all = new double[3];
+		for (int si = 0; si < STRUCTURES.length; si++) {
+			sb.append("\n" + line(STRUCTURES[si], totals[si]));
+			for (int i = 0; i < 3; i++) all[i] += totals[si][i];
+		}
+		sb.append("\n" + line("all", all));
+		System.out.println(sb);
+	}
+
+	private static String line(String name, double[] t) {
+		String error = t[0] == 0 ? "-" : f(100 * (t[1] - t[0]) / t[0]);
+		return name + "\t" + (long) t[0] + "\t" + f(t[1]) + "\t" + error + "\t" + (long) t[2];
+	}
+
+	private static double[][] compare(Scan scan, File scanDir, Solution solution) throws Exception {
+		double[][] ret = new double[STRUCTURES.length][3];
+		for (File f: MaskScorer.maskFiles(scanDir)) {
+			int k = MaskScorer.sliceOrdinal(f) - 1;
+			if (k < 0 || k >= scan.slices.size()) continue;
+			Slice slice = scan.slices.get(k);
+			BitGrid[] grids = MaskScorer.decode(f);
+			for (int si = 0; si < STRUCTURES.length; si++) {
+				BitGrid mask = grids[si];
+				List<Polygon> polygons = solution.polygons(slice).get(STRUCTURES[si]);
+				if (mask == null && polygons == null) continue;
+				BitGrid drawn = mask == null ? new BitGrid(0, 0, scan.w, scan.h, 1) : new BitGrid(0, 0, mask.cols, mask.rows, 1);
+				if (polygons != null) {
+					for (Polygon p: polygons) {
+						drawn.fill(p);
+						ret[si][1] += p.area;
+					}
+				}
+				if (mask == null) {
+					ret[si][2] += MaskScorer.count(drawn);
+					continue;
+				}
+				long[] tpFpFn = BitGrid.compare(mask, drawn);
+				ret[si][0] += tpFpFn[0] + tpFpFn[2];
+				ret[si][2] += tpFpFn[1] + tpFpFn[2];
+			}
+		}
+		return ret;
+	}
+
+	public static void main(String[] args) throws Exception {
+		if (args.length < 2) {
+			System.out.println("Usage: MaskConverter <mask-dir> <solution-csv> [-threads <n>] [-tolerance <pixels>] [-truth <path-to-truth>]");
+			System.out.println("  -truth: load the written solution against the truth and report the area error");
+			System.exit(1);
+		}
+		File maskDir = new File(args[0]);
+		File out = new File(args[1]);
+		MaskConverter converter = new MaskConverter();
+		String truthPath = null;
+		for (int i = 2; i < args.length; i++) {
+			if (args[i].equals("-threads")) converter.threads = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-tolerance")) converter.tolerance = Double.parseDouble(args[i+1]);
+			if (args[i].equals("-truth")) truthPath = args[i+1];
+		}
+		if (!maskDir.isDirectory()) {
+			System.out.println("Mask directory not found: " + maskDir);
+			System.exit(2);
+		}
+		converter.convert(maskDir, out);
+		if (truthPath != null) converter.verify(maskDir, truthPath, out);
+	}
+}
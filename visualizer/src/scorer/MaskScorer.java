@@ -0,0 +1,259 @@
+package scorer;
+
+import static common.Polygon.STRUCTURES;
+import static common.Polygon.TUMOR_NAME;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import common.BitGrid;
+import common.Metric;
+import common.PhaseStats;
+import common.Polygon;
+import common.RunMask;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Scores a solution given as per slice label masks instead of contours, laid out like the
+ * data: <dir>/<scan id>/[Set_xxx/]mask<slice>.png, slice ordinals start at 1. A mask is either
+ * - an image with a band per structure, band i for STRUCTURES[i], non-zero inside, e.g. RGBA
+ *   for Tumor, CA_CHA, PV_SMV, SMA, or
+ * - a single band label image, value i + 1 for STRUCTURES[i], 0 for background, other values
+ *   are an error.
+ * Slices without a mask file have no solution. Masks are decoded in parallel straight into bit
+ * grids and compared word by word to the truth masks kept with the slices, which are the truth
+ * contours rasterized at pixel centers like in RasterOverlapEngine. tp, fp and fn are pixel counts.
+ */
+public class MaskScorer {
+	private final int threads;
+	public PhaseStats stats; // decode and compare times are recorded if set
+
+	public MaskScorer(int threads) {
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Returns the per slice results of each scan, like Scorer.score(List<Scan>). Throws an
+	 * IOException with a message for info.txt if a mask can't be used.
+	 */
+	public List<Metric[]> score(List<Scan> scans, File dir) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Metric[]> ret = new ArrayList<>();
+			List<Future<?>> futures = new ArrayList<>();
+			for (final Scan scan: scans) {
+				final Metric[] result = new Metric[scan.slices.size()];
+				ret.add(result);
+				boolean[] seen = new boolean[result.length];
+				for (final File f: maskFiles(maskDir(dir, scan.id))) {
+					final int k = sliceOrdinal(f) - 1;
+					if (k < 0 || k >= scan.slices.size()) {
+						throw new IOException("Unknown slice id found in mask directory: " + scan.id + ", " + (k + 1));
+					}
+					if (seen[k]) throw new IOException("Duplicate slice id found in mask directory: " + scan.id + ", " + (k + 1));
+					seen[k] = true;
+					futures.add(pool.submit(new Callable<Void>() {
+						@Override
+						public Void call() throws Exception {
+							result[k] = score(scan, scan.slices.get(k), decode(scan, f));
+							return null;
+						}
+					}));
+				}
+				for (int k = 0; k < result.length; k++) { // no mask file, nothing to decode
+					if (!seen[k]) {
+						result[k] = score(scan, scan.slices.get(k), new BitGrid[STRUCTURES.length]);
+					}
+				}
+			}
+			for (Future<?> f: futures) {
+				try {
+					f.get();
+				}
+				catch (ExecutionException e) {
+					throw (Exception) e.getCause();
+				}
+			}
+			return ret;
+		}
+		finally {
+			pool.shutdownNow();
+		}
+	}
+
+	// directory of the scan's masks: <dir>/<scan id>/Set_xxx if there is one, else <dir>/<scan id>
+	static File maskDir(File dir, String scanId) {
+		File top = new File(dir, scanId);
+		File[] files = top.listFiles();
+		if (files != null) {
+			for (File f: files) {
+				if (f.isDirectory() && f.getName().startsWith("Set_")) return f;
+			}
+		}
+		return top;
+	}
+
+	static List<File> maskFiles(File scanDir) {
+		List<File> ret = new ArrayList<>();
+		File[] files = scanDir.listFiles();
+		if (files == null) return ret;
+		for (File f: files) {
+			String name = f.getName();
+			if (name.startsWith("mask") && name.endsWith(".png")) ret.add(f);
+		}
+		return ret;
+	}
+
+	// 1-based slice ordinal from the file name
+	static int sliceOrdinal(File f) throws IOException {
+		String name = f.getName();
+		try {
+			return Integer.parseInt(name.substring("mask".length(), name.length() - ".png".length()));
+		}
+		catch (NumberFormatException e) {
+			throw new IOException("Unexpected mask file name: " + f.getPath());
+		}
+	}
+
+	private BitGrid[] decode(Scan scan, File f) throws IOException {
+		long t0 = System.nanoTime();
+		BitGrid[] grids = decode(f);
+		for (BitGrid g: grids) {
+			if (g != null && scan.w > 0 && scan.h > 0 && (g.cols != scan.w || g.rows != scan.h)) {
+				throw new IOException("Mask size " + g.cols + "x" + g.rows + " differs from scan size " + scan.w + "x" + scan.h + ": " + f.getPath());
+			}
+		}
+		if (stats != null) stats.add("mask-decode", PhaseStats.ALL, System.nanoTime() - t0);
+		return grids;
+	}
+
+	/**
+	 * Decodes a mask file into a bit grid per structure covering the whole slice, null for
+	 * structures that have no pixels.
+	 */
+	static BitGrid[] decode(File f) throws IOException {
+		BufferedImage img = ImageIO.read(f);
+		if (img == null) throw new IOException("Can't read mask file: " + f.getPath());
+		int w = img.getWidth();
+		int h = img.getHeight();
+		Raster raster = img.getRaster();
+		int bands = raster.getNumBands();
+		if (bands != 1 && bands < STRUCTURES.length) {
+			throw new IOException("Mask has " + bands + " bands, expected 1 (labels) or " + STRUCTURES.length + " (one per structure): " + f.getPath());
+		}
+		boolean labels = bands == 1;
+		BitGrid[] grids = new BitGrid[STRUCTURES.length];
+		for (int si = 0; si < grids.length; si++) grids[si] = new BitGrid(0, 0, w, h, 1);
+		boolean[] used = new boolean[STRUCTURES.length];
+
+		// bytes straight from the buffer if possible, else through getSamples
+		byte[] data = null;
+		int pixelStride = 0, scanlineStride = 0;
+		int[] offsets = null;
+		if (raster.getSampleModel() instanceof ComponentSampleModel && raster.getDataBuffer() instanceof DataBufferByte &&
+				raster.getSampleModelTranslateX() == 0 && raster.getSampleModelTranslateY() == 0) {
+			ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+			data = ((DataBufferByte) raster.getDataBuffer()).getData(0);
+			pixelStride = sm.getPixelStride();
+			scanlineStride = sm.getScanlineStride();
+			offsets = new int[bands];
+			for (int b = 0; b < bands; b++) offsets[b] = sm.getBandOffsets()[b] + raster.getDataBuffer().getOffsets()[sm.getBankIndices()[b]];
+			if (raster.getDataBuffer().getNumBanks() > 1) data = null;
+		}
+		int[] row = new int[w];
+		for (int band = 0; band < (labels ? 1 : STRUCTURES.length); band++) {
+			for (int y = 0; y < h; y++) {
+				if (data == null) {
+					raster.getSamples(0, y, w, 1, band, row);
+				}
+				else {
+					int p = y * scanlineStride + offsets[band];
+					for (int x = 0; x < w; x++, p += pixelStride) row[x] = data[p] & 0xff;
+				}
+				if (labels) {
+					for (int x = 0; x < w; x++) {
+						int v = row[x];
+						if (v == 0) continue;
+						if (v > STRUCTURES.length) {
+							throw new IOException("Unknown label " + v + " at " + x + "," + y + ", expected 0 to " + STRUCTURES.length + ": " + f.getPath());
+						}
+						BitGrid g = grids[v - 1];
+						g.bits[y * g.words + (x >>> 6)] |= 1L << (x & 63);
+						used[v - 1] = true;
+					}
+				}
+				else {
+					BitGrid g = grids[band];
+					int offset = y * g.words;
+					for (int wi = 0; wi < g.words; wi++) { // 64 pixels into a word at a time
+						long word = 0;
+						int x0 = wi << 6;
+						int x1 = Math.min(w, x0 + 64);
+						for (int x = x0; x < x1; x++) {
+							if (row[x] != 0) word |= 1L << (x - x0);
+						}
+						g.bits[offset + wi] = word;
+						if (word != 0) used[band] = true;
+					}
+				}
+			}
+		}
+		for (int si = 0; si < grids.length; si++) {
+			if (!used[si]) grids[si] = null;
+		}
+		return grids;
+	}
+
+	// same rules as Scorer.score(Scan, Slice, Map), on pixel counts like RunMaskOverlapEngine: a
+	// structure has truth if its truth polygons have an area, a solution if its mask has pixels
+	private Metric score(Scan scan, Slice slice, BitGrid[] solution) {
+		Metric m = new Metric();
+		for (int si = 0; si < STRUCTURES.length; si++) {
+			long t0 = System.nanoTime();
+			String struct = STRUCTURES[si];
+			double areaTruth = 0;
+			List<Polygon> truth = slice.nameToTruthPolygons.get(struct);
+			if (truth != null) {
+				for (Polygon p: truth) areaTruth += p.area;
+			}
+			boolean hasTruth = areaTruth != 0;
+			BitGrid gridS = solution[si];
+			if (!hasTruth && gridS == null) continue;
+			if (!hasTruth) { // no truth, false sol for Tumor, otherwise ignore
+				if (struct.equals(TUMOR_NAME)) m.name2fp.put(struct, (double) count(gridS));
+				continue;
+			}
+			RunMask maskT = slice.truthMask(si, scan.w, scan.h); // kept with the slice
+			if (gridS == null) {
+				m.name2fn.put(struct, (double) maskT.area());
+				continue;
+			}
+			long[] tpFpFn = RunMask.compare(maskT, gridS);
+			m.name2tp.put(struct, (double) tpFpFn[0]);
+			m.name2fp.put(struct, (double) tpFpFn[1]);
+			m.name2fn.put(struct, (double) tpFpFn[2]);
+			if (stats != null) stats.add("mask-compare", si, System.nanoTime() - t0);
+		}
+		return m;
+	}
+
+	static long count(BitGrid g) {
+		long ret = 0;
+		for (long word: g.bits) ret += Long.bitCount(word);
+		return ret;
+	}
+}
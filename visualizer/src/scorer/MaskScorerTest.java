@@ -0,0 +1,34 @@
+package scorer;
+
+import java.io.File;
+
+/**
+ * Converts a mask directory to a CSV solution and checks that scoring the masks and scoring
+ * the CSV with the rle engine give the same result.
+ * Arguments: [truth path] [mask dir] [out dir]
+ */
+public class MaskScorerTest {
+
+	public static void main(String[] args) throws Exception {
+		String phase = "provisional";
+		String truthPath = args.length > 0 ? args[0] : "../sample/sample-meta-gt.txt";
+		String maskDir = args.length > 1 ? args[1] : "../mask";
+		String outDir = args.length > 2 ? args[2] : "../tester-data/out";
+		new File(outDir).mkdirs();
+		File csv = new File(outDir, "mask-test.csv");
+		MaskConverter converter = new MaskConverter();
+		converter.convert(new File(maskDir), csv);
+
+		double scoreMask = new Scorer().run(phase, truthPath, maskDir, outDir);
+		Scorer scorer = new Scorer();
+		scorer.overlapEngine = new RunMaskOverlapEngine();
+		double scoreCsv = scorer.run(phase, truthPath, csv.getPath(), outDir);
+		System.out.println("Mask score: " + scoreMask);
+		System.out.println("CSV score:  " + scoreCsv);
+		if (Math.abs(scoreMask - scoreCsv) > 1e-9) {
+			System.out.println("Scores differ");
+			System.exit(1);
+		}
+		System.out.println("Scores match");
+	}
+}
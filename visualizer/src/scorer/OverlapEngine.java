@@ -0,0 +1,30 @@
+package scorer;
+
+import java.util.List;
+
+import common.Polygon;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Calculates the overlap of the truth and solution polygons of one structure on a slice.
+ * Called only if both polygon lists are non-empty, possibly from several threads at once.
+ */
+public interface OverlapEngine {
+	
+	/**
+	 * Returns {tp, fp, fn} areas in pixels.
+	 */
+	public double[] overlap(Scan scan, Slice slice, String struct, List<Polygon> truth, List<Polygon> solution);
+	
+	/**
+	 * Returns the area in pixels of the truth or solution polygons of a structure that has no
+	 * counterpart on the slice, measured like overlap measures tp, fp and fn.
+	 */
+	public double area(Scan scan, Slice slice, String struct, List<Polygon> polygons, boolean truth);
+	
+	/**
+	 * Returns a summary of the work done so far for debug output, or null.
+	 */
+	public String report();
+}
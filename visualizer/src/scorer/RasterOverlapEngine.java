@@ -0,0 +1,82 @@
+package scorer;
+
+import java.util.List;
+
+import common.BitGrid;
+import common.Polygon;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Approximate overlap calculation: polygons are scan-line rasterized onto the scan's pixel grid,
+ * optionally with supersample x supersample samples per pixel, and tp/fp/fn are counted with
+ * bitwise operations on the packed rows. Parts of polygons that fall outside the scan's
+ * w x h grid are ignored.
+ */
+public class RasterOverlapEngine implements OverlapEngine {
+	private final int supersample;
+	
+	public RasterOverlapEngine(int supersample) {
+		this.supersample = Math.max(1, supersample);
+	}
+
+	@Override
+	public double[] overlap(Scan scan, Slice slice, String struct, List<Polygon> truth, List<Polygon> solution) {
+		BitGrid gridT = grid(scan, truth, solution);
+		for (Polygon p: truth) gridT.fill(p);
+		BitGrid gridS = grid(scan, truth, solution);
+		for (Polygon p: solution) gridS.fill(p);
+		
+		long[] counts = BitGrid.compare(gridT, gridS);
+		double scale = 1.0 / (supersample * supersample);
+		return new double[] {counts[0] * scale, counts[1] * scale, counts[2] * scale};
+	}
+	
+	@Override
+	public double area(Scan scan, Slice slice, String struct, List<Polygon> polygons, boolean truth) {
+		BitGrid grid = grid(scan, polygons, polygons);
+		for (Polygon p: polygons) grid.fill(p);
+		long count = 0;
+		for (long word: grid.bits) count += Long.bitCount(word);
+		return count / (double) (supersample * supersample);
+	}
+	
+	// empty grid of samples around the polygons of both lists, clipped to the scan
+	private BitGrid grid(Scan scan, List<Polygon> a, List<Polygon> b) {
+		int ss = supersample;
+		double minx = Double.MAX_VALUE;
+		double miny = Double.MAX_VALUE;
+		double maxx = -Double.MAX_VALUE;
+		double maxy = -Double.MAX_VALUE;
+		for (int side = 0; side < 2; side++) {
+			for (Polygon p: side == 0 ? a : b) {
+				minx = Math.min(p.minx, minx);
+				maxx = Math.max(p.maxx, maxx);
+				miny = Math.min(p.miny, miny);
+				maxy = Math.max(p.maxy, maxy);
+			}
+		}
+		// grid of samples around the polygons, clipped to the scan
+		int x0 = (int)Math.floor(minx * ss);
+		int y0 = (int)Math.floor(miny * ss);
+		int x1 = (int)Math.ceil(maxx * ss) + 1;
+		int y1 = (int)Math.ceil(maxy * ss) + 1;
+		if (scan.w > 0 && scan.h > 0) {
+			x0 = Math.max(0, x0);
+			y0 = Math.max(0, y0);
+			x1 = Math.min(scan.w * ss, x1);
+			y1 = Math.min(scan.h * ss, y1);
+		}
+		return new BitGrid(x0, y0, x1 - x0, y1 - y0, ss);
+	}
+	
+	@Override
+	public String report() {
+		return null;
+	}
+	
+	@Override
+	public String toString() {
+		return "raster-" + supersample;
+	}
+}
@@ -0,0 +1,49 @@
+package scorer;
+
+import static common.Polygon.STRUCTURES;
+
+import java.util.List;
+
+import common.Polygon;
+import common.RunMask;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Overlap calculation on run-length encoded pixel masks: a pixel counts if its center is
+ * inside, the same as RasterOverlapEngine without supersampling. The truth masks are kept
+ * with the slices, so only the solution is rasterized per run, union and intersection are
+ * linear merges of sorted runs.
+ */
+public class RunMaskOverlapEngine implements OverlapEngine {
+
+	@Override
+	public double[] overlap(Scan scan, Slice slice, String struct, List<Polygon> truth, List<Polygon> solution) {
+		RunMask maskT = slice.truthMask(index(struct), scan.w, scan.h);
+		RunMask maskS = RunMask.of(solution, scan.w, scan.h);
+		long[] counts = RunMask.compare(maskT, maskS);
+		return new double[] {counts[0], counts[1], counts[2]};
+	}
+	
+	@Override
+	public double area(Scan scan, Slice slice, String struct, List<Polygon> polygons, boolean truth) {
+		if (truth) return slice.truthMask(index(struct), scan.w, scan.h).area();
+		return RunMask.of(polygons, scan.w, scan.h).area();
+	}
+	
+	private static int index(String struct) {
+		int si = 0;
+		while (!STRUCTURES[si].equals(struct)) si++;
+		return si;
+	}
+	
+	@Override
+	public String report() {
+		return null;
+	}
+	
+	@Override
+	public String toString() {
+		return "rle";
+	}
+}
@@ -2,31 +2,73 @@ package scorer;
 
 import static common.Polygon.STRUCTURES;
 import static common.Polygon.TUMOR_NAME;
-import static common.Utils.coordStringToPoints;
 import static common.Utils.f;
 import static common.Utils.f6;
 
-import java.awt.geom.Area;
-import java.awt.geom.Line2D;
-import java.awt.geom.PathIterator;
 import java.io.File;
-import java.io.FileReader;
-import java.io.LineNumberReader;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import common.BinaryTruth;
+import common.CsvReader;
 import common.Metric;
-import common.P2;
+import common.PhaseStats;
 import common.Polygon;
 import common.Scan;
 import common.Slice;
 
 public class Scorer {
 	public static boolean DEBUG = false;
+	private static final int SLICE_BATCH = 8; // slices scored sequentially within one fork-join task
+	private static final int WATCH_SETTLE_MS = 200; // quiet time after the last change of a watched solution
+	public int threads = 1; // more than 1 turns on parallel scoring
+	public OverlapEngine overlapEngine = new AreaOverlapEngine();
+	private static final byte[] SIZES_BYTES = "SIZES".getBytes(StandardCharsets.UTF_8);
+	private static final byte[][] STRUCTURE_BYTES = new byte[STRUCTURES.length][];
+	static {
+		for (int i = 0; i < STRUCTURES.length; i++) STRUCTURE_BYTES[i] = STRUCTURES[i].getBytes(StandardCharsets.UTF_8);
+	}
+	public String cachePath; // per-slice result cache file, if set
+	public int cacheSize = SliceCache.DEFAULT_MAX_ENTRIES; // most entries kept in it
+	public PhaseStats stats; // phase timings, recorded and written next to result.txt if set
+	public boolean volumetric = false; // also write 3D volumes and Dice to volumetric.txt
+	private SliceCache cache;
+	private boolean hasSolution = false; // solution polygons are loaded into the truth slices
 	private boolean isProvisional;
 	private PrintWriter infoLog;	
 	public Map<String, Scan> idToScan = new TreeMap<>();
@@ -34,36 +76,402 @@ public class Scorer {
 	private String outDir;
 		
 	public double run(String testPhase, String truthPath, String solutionPath, String outD) throws Exception {
+		init(testPhase, truthPath, outD);
+		int exitCode = scoreSolution(solutionPath);
+		if (exitCode != 0) {
+			System.exit(exitCode);
+		}
+		return score;
+	}
+	
+	/**
+	 * Scores the solution once, then again each time the solution file is rewritten. Never returns.
+	 */
+	public void watch(String testPhase, String truthPath, String solutionPath, String outD) throws Exception {
+		init(testPhase, truthPath, outD);
+		Path solPath = Paths.get(solutionPath).toAbsolutePath();
+		WatchService watcher = FileSystems.getDefault().newWatchService();
+		solPath.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+		
+		while (true) {
+			long start = System.currentTimeMillis();
+			int exitCode = scoreSolution(solutionPath);
+			long time = System.currentTimeMillis() - start;
+			System.out.println(exitCode == 0 ? "Score: " + score + " (" + time + " ms)" : "Can't score, see info.txt");
+			System.out.println("Watching " + solPath + " for changes...");
+			
+			// wait for a change of the solution file, then for the writer to finish
+			boolean changed = false;
+			while (!changed) {
+				WatchKey key = watcher.take();
+				for (WatchEvent<?> e: key.pollEvents()) {
+					if (solPath.getFileName().equals(e.context())) changed = true;
+				}
+				key.reset();
+			}
+			while (true) {
+				WatchKey key = watcher.poll(WATCH_SETTLE_MS, TimeUnit.MILLISECONDS);
+				if (key == null) break;
+				key.pollEvents();
+				key.reset();
+			}
+		}
+	}
+	
+	/**
+	 * Loads the truth once, then scores solutions on request over HTTP on the loopback interface:
+	 *   GET /score?solution=<path>&out=<dir>
+	 * writes result.txt and info.txt into the out dir like run() and answers with the score, or
+	 * with status 422 if the solution can't be scored. The out dir of a request is resolved
+	 * against the given out dir and must lie inside it, else the answer has status 400. Missing
+	 * parameters default to the given solution path and out dir. Requests are scored one at a
+	 * time. Never returns.
+	 */
+	public void serve(String testPhase, String truthPath, final String solutionPath, final String outD, int port) throws Exception {
+		init(testPhase, truthPath, outD);
+		closeInfoLog(); // each request writes its own
+		HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.createContext("/score", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				Map<String, String> params = queryParams(exchange.getRequestURI().getRawQuery());
+				String sol = params.containsKey("solution") ? params.get("solution") : solutionPath;
+				int status = 200;
+				String response;
+				try {
+					long start = System.currentTimeMillis();
+					File out = requestOutDir(outD, params.get("out"));
+					if (out == null) {
+						status = 400;
+						response = "Out dir must be inside " + outD + ": " + params.get("out");
+						System.out.println(response);
+					}
+					else {
+						int exitCode = scoreRequest(sol, out);
+						long time = System.currentTimeMillis() - start;
+						if (exitCode == 0) {
+							response = "" + score;
+							System.out.println("Scored " + sol + ": " + score + " (" + time + " ms)");
+						}
+						else {
+							status = 422;
+							response = "Can't score, see " + new File(out, "info.txt").getPath();
+							System.out.println(response);
+						}
+					}
+				}
+				catch (Exception e) {
+					e.printStackTrace();
+					status = 500;
+					response = "Error: " + e;
+				}
+				byte[] bytes = (response + "\n").getBytes(StandardCharsets.UTF_8);
+				exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+				exchange.sendResponseHeaders(status, bytes.length);
+				OutputStream os = exchange.getResponseBody();
+				os.write(bytes);
+				os.close();
+			}
+		});
+		server.start();
+		System.out.println("Truth loaded, serving on http://localhost:" + server.getAddress().getPort() + "/score?solution=<path>&out=<dir>");
+		Thread.currentThread().join();
+	}
+	
+	private synchronized int scoreRequest(String solutionPath, File outD) throws Exception {
+		outD.mkdirs();
+		outDir = outD.getPath();
+		return scoreSolution(solutionPath);
+	}
+	
+	// the out dir of a request resolved against the server's, null if it isn't inside that
+	static File requestOutDir(String outD, String out) throws IOException {
+		File base = new File(outD).getCanonicalFile();
+		if (out == null) return base;
+		File ret = base.toPath().resolve(out).toFile().getCanonicalFile();
+		return ret.toPath().startsWith(base.toPath()) ? ret : null;
+	}
+	
+	private static Map<String, String> queryParams(String query) throws IOException {
+		Map<String, String> ret = new HashMap<>();
+		if (query == null) return ret;
+		for (String param: query.split("&")) {
+			int pos = param.indexOf('=');
+			if (pos == -1) continue;
+			ret.put(URLDecoder.decode(param.substring(0, pos), "UTF-8"), URLDecoder.decode(param.substring(pos + 1), "UTF-8"));
+		}
+		return ret;
+	}
+	
+	/**
+	 * Scores several solution files against the truth, which is loaded only once. Each solution's
+	 * polygons are kept in its own Solution, solutions are loaded and scored in parallel on
+	 * 'threads' workers, one solution per task. Writes a table of the overall and per structure
+	 * scores to the console and to summary.txt in the out dir, a solution that can't be scored
+	 * has a score of -1 and the reason in info.txt. The info messages of each solution are written
+	 * in the given order once it is scored. With volumetric on, the 3D results of the n-th
+	 * solution go to volumetric-<n>.txt.
+	 */
+	public void batch(String testPhase, String truthPath, List<String> solutionPaths, String outD) throws Exception {
+		init(testPhase, truthPath, outD);
+		final List<Scan> scans = new ArrayList<>(idToScan.values());
+		ExecutorService pool = Executors.newFixedThreadPool(Math.max(1, threads));
+		List<Future<Map<String, Double>>> futures = new ArrayList<>();
+		List<Solution> solutions = new ArrayList<>();
+		for (int i = 0; i < solutionPaths.size(); i++) {
+			final Solution solution = new Solution(solutionPaths.get(i));
+			solution.messages = new ArrayList<>(); // workers would interleave them
+			solutions.add(solution);
+			final int n = i + 1;
+			futures.add(pool.submit(new Callable<Map<String, Double>>() {
+				@Override
+				public Map<String, Double> call() throws Exception {
+					return scoreBatchSolution(scans, solution, n);
+				}
+			}));
+		}
+		
+		String header = "solution\tscore";
+		for (String s: STRUCTURES) header += "\t" + s;
+		List<String> lines = new ArrayList<>();
+		lines.add(header);
+		for (int i = 0; i < futures.size(); i++) {
+			String line = solutionPaths.get(i);
+			Map<String, Double> totals = null;
+			Solution solution = solutions.get(i);
+			try {
+				totals = futures.get(i).get();
+			}
+			catch (ExecutionException e) {
+				solution.messages.add("Error scoring solution: " + e.getCause());
+				e.getCause().printStackTrace();
+			}
+			for (String s: solution.messages) info(solution.path + ": " + s);
+			if (totals == null) {
+				line += "\t-1";
+				for (int j = 0; j < STRUCTURES.length; j++) line += "\t-";
+			}
+			else {
+				line += "\t" + f6(100 * weightedScore(totals));
+				for (String s: STRUCTURES) line += "\t" + f6(totals.get(s));
+			}
+			lines.add(line);
+		}
+		pool.shutdown();
+		
+		String engineReport = overlapEngine.report();
+		if (engineReport != null) debug(engineReport);
+		if (cache != null) {
+			debug(cache.report());
+			cache.save();
+		}
+		PrintWriter summary = new PrintWriter(new File(outDir, "summary.txt"));
+		for (String line: lines) {
+			System.out.println(line);
+			summary.println(line);
+		}
+		summary.close();
+		writeStats();
+		closeInfoLog();
+	}
+	
+	// loads and scores the n-th solution of a batch, returns null if it can't be scored
+	private Map<String, Double> scoreBatchSolution(List<Scan> scans, Solution solution, int n) throws Exception {
+		if (!new File(solution.path).exists()) {
+			info(solution, "Solution file not found");
+			return null;
+		}
+		if (!load(solution.path, false, solution)) return null;
+		List<Metric[]> results = new ArrayList<>();
+		for (Scan scan: scans) {
+			Metric[] result = new Metric[scan.slices.size()];
+			for (int i = 0; i < result.length; i++) {
+				Slice slice = scan.slices.get(i);
+				result[i] = score(scan, slice, solution.polygons(slice));
+			}
+			results.add(result);
+		}
+		if (volumetric) writeVolumetric(scans, solution, 1, "volumetric-" + n + ".txt"); // already on a worker
+		return structureScores(scans, results, false);
+	}
+	
+	/**
+	 * Returns the solution files given by a comma separated list of files, directories (all
+	 * .csv files in them) and glob patterns like ckpt/sol_*.csv, in the given order, the
+	 * files of a directory or pattern sorted by name.
+	 */
+	public static List<String> solutionFiles(String spec) throws IOException {
+		List<String> ret = new ArrayList<>();
+		for (String part: spec.split(",")) {
+			if (part.isEmpty()) continue;
+			File f = new File(part);
+			String pattern = null;
+			if (f.isDirectory()) {
+				pattern = "*.csv";
+			}
+			else if (part.contains("*") || part.contains("?") || part.contains("[") || part.contains("{")) {
+				pattern = f.getName();
+				f = f.getParentFile() == null ? new File(".") : f.getParentFile();
+			}
+			if (pattern == null) {
+				ret.add(part);
+				continue;
+			}
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+			List<String> matches = new ArrayList<>();
+			DirectoryStream<Path> dir = Files.newDirectoryStream(f.toPath());
+			for (Path p: dir) {
+				if (matcher.matches(p.getFileName()) && Files.isRegularFile(p)) matches.add(p.toString());
+			}
+			dir.close();
+			Collections.sort(matches);
+			ret.addAll(matches);
+		}
+		return ret;
+	}
+	
+	// loads the truth file, done only once per Scorer
+	private void init(String testPhase, String truthPath, String outD) throws Exception {
 		outDir = outD;
 		infoLog = new PrintWriter(new File(outDir, "info.txt"));
 		
 		isProvisional = testPhase.equalsIgnoreCase("provisional");
 
-		boolean ok = load(truthPath, true);
+		boolean ok = load(truthPath, true, null);
 		if (!ok) { // shouldn't happen
 			System.exit(1);
 		}
 		
+		if (cachePath != null && overlapEngine instanceof VerifyingOverlapEngine) { // cached slices would skip the check
+			System.out.println("The slice cache isn't used with -overlap verify, all slices are verified");
+		}
+		else if (cachePath != null) {
+			cache = new SliceCache(new File(cachePath), new File(truthPath), overlapEngine.toString());
+			cache.maxEntries = cacheSize;
+			debug("Slice cache " + cachePath + " has " + cache.size() + " entries");
+		}
+	}
+	
+	/**
+	 * Loads the truth and a solution file into its own Solution, for tools that check what they
+	 * wrote, problems go to info.txt in outD. Returns null if the solution can't be loaded.
+	 */
+	Solution loadSolution(String truthPath, String solutionPath, String outD) throws Exception {
+		init("provisional", truthPath, outD);
+		Solution ret = new Solution(solutionPath);
+		boolean ok = load(solutionPath, false, ret);
+		closeInfoLog();
+		return ok ? ret : null;
+	}
+	
+	/**
+	 * Scores a solution file against the loaded truth and writes result.txt and info.txt.
+	 * Returns 0 on success, or the exit code of the process if the solution can't be scored.
+	 */
+	private int scoreSolution(String solutionPath) throws Exception {
+		if (infoLog == null) infoLog = new PrintWriter(new File(outDir, "info.txt"));
+		if (hasSolution) { // remove the previous solution
+			for (Scan scan: idToScan.values()) {
+				for (Slice slice: scan.slices) slice.nameToSolutionPolygons.clear();
+			}
+		}
+		hasSolution = true;
+		
 		File sol = new File(solutionPath);
 		if (!sol.exists()) {
 			info("Solution file not found");
 			writeScore(-1);
-			System.exit(2);
+			closeInfoLog();
+			return 2;
 		}
 		
-		ok = load(solutionPath, false);
-		if (!ok) {
-			writeScore(-1);
-			System.exit(3);
+		List<Scan> scans = new ArrayList<>(idToScan.values());
+		List<Metric[]> results;
+		if (sol.isDirectory()) { // label masks, compared without contours
+			MaskScorer maskScorer = new MaskScorer(threads);
+			maskScorer.stats = stats;
+			long t0 = System.nanoTime();
+			try {
+				results = maskScorer.score(scans, sol);
+			}
+			catch (IOException e) {
+				info(e.getMessage());
+				writeScore(-1);
+				closeInfoLog();
+				return 3;
+			}
+			if (stats != null) stats.add("score", PhaseStats.ALL, System.nanoTime() - t0);
 		}
-
+		else {
+			boolean ok = load(solutionPath, false, null);
+			if (!ok) {
+				writeScore(-1);
+				closeInfoLog();
+				return 3;
+			}
+			long t0 = System.nanoTime();
+			results = score(scans);
+			if (stats != null) stats.add("score", PhaseStats.ALL, System.nanoTime() - t0);
+		}
+		Map<String, Double> totals = structureScores(scans, results, true);
+		score = weightedScore(totals);
+		String result = "Overall f-score: " + f6(score);
+		for (String s: STRUCTURES) {
+			result += "\n  " + s + ":\t" + f6(totals.get(s));
+		}
+		
+		debug(result);
+		String engineReport = overlapEngine.report();
+		if (engineReport != null) debug(engineReport);
+		if (cache != null) {
+			debug(cache.report());
+			cache.save();
+		}
+		
+		score *= 100;
+		
+		if (volumetric) {
+			if (sol.isDirectory()) info("Volumetric scoring needs contours, not done for a mask directory");
+			else writeVolumetric(scans, null, threads, "volumetric.txt");
+		}
+		writeScore(score);
+		writeStats();
+		closeInfoLog();
+		return 0;
+	}
+	
+	// solution null: the solution polygons kept with the slices
+	private void writeVolumetric(List<Scan> scans, Solution solution, int threads, String fileName) throws Exception {
+		long t0 = System.nanoTime();
+		String report = VolumeScorer.report(VolumeScorer.score(scans, solution, threads));
+		if (stats != null) stats.add("volumetric", PhaseStats.ALL, System.nanoTime() - t0);
+		if (solution == null) debug(report);
+		PrintWriter out = new PrintWriter(new File(outDir, fileName));
+		out.println(report);
+		out.close();
+	}
+	
+	// writes stats.json and stats.prom and starts over, so that each run has its own
+	private void writeStats() {
+		if (stats == null) return;
+		debug(stats.report());
+		stats.write(new File(outDir), "scorer");
+		stats.reset();
+	}
+	
+	/**
+	 * Returns the f-scores of each structure averaged over all scans, given the per slice
+	 * results of the scans. Logs the per scan details if log is set.
+	 */
+	private Map<String, Double> structureScores(List<Scan> scans, List<Metric[]> results, boolean log) {
 		// Most of this is copied from visualizer, to be updated if changes
 		Map<String, Double> totals = new HashMap<>();
 		for (String struct: STRUCTURES) totals.put(struct, 0.0);
 		
-		for (Scan scan: idToScan.values()) {
-			debug(" " + scan.id);
-			Metric[] result = score(scan);
+		for (int scanIndex = 0; scanIndex < scans.size(); scanIndex++) {
+			Scan scan = scans.get(scanIndex);
+			if (log) debug(" " + scan.id);
+			Metric[] result = results.get(scanIndex);
 			Metric scanSums = new Metric();
 			
 			for (int i = 0; i < result.length; i++) {
@@ -87,14 +495,16 @@ public class Scorer {
 				}
 				add(totals, struct, f);
 				
-				debug("  " + struct);
-				debug("    tp    : " + f(tp));
-				debug("    fp    : " + f(fp));
-				debug("    fn    : " + f(fn));
-				debug("    score : " + f6(f));
+				if (log) {
+					debug("  " + struct);
+					debug("    tp    : " + f(tp));
+					debug("    fp    : " + f(fp));
+					debug("    fn    : " + f(fn));
+					debug("    score : " + f6(f));
+				}
 			}
 		
-			for (int i = 0; i < result.length; i++) {
+			for (int i = 0; log && i < result.length; i++) {
 				Metric m = result[i];
 				double tp = m.name2tp.get(TUMOR_NAME);
 				double fp = m.name2fp.get(TUMOR_NAME);
@@ -114,28 +524,25 @@ public class Scorer {
 			}
 		}
 		
-		score = 0;
+		for (String s: STRUCTURES) totals.put(s, totals.get(s) / idToScan.size());
+		return totals;
+	}
+	
+	// the overall score in [0, 1], tumor weighted 7 times as much as each vessel structure
+	private static double weightedScore(Map<String, Double> totals) {
+		double ret = 0;
 		double sumW = 0;
 		for (String s: STRUCTURES) {
-			double v = totals.get(s) / idToScan.size();
-			totals.put(s, v);
 			double w = s.equals(TUMOR_NAME) ? 7 : 1;
-			score += w * v;
+			ret += w * totals.get(s);
 			sumW += w;
 		}
-		score /= sumW;
-		String result = "Overall f-score: " + f6(score);
-		for (String s: STRUCTURES) {
-			result += "\n  " + s + ":\t" + f6(totals.get(s));
-		}
-		
-		debug(result);
-		
-		score *= 100;
-		
-		writeScore(score);
+		return ret / sumW;
+	}
+	
+	private void closeInfoLog() {
 		infoLog.close();
-		return score;
+		infoLog = null;
 	}
 
 	private void add(Map<String, Double> map, String key, Double value) {
@@ -146,21 +553,34 @@ public class Scorer {
 		map.put(key, old);
 	}
 	
-    private boolean load(String path, boolean truth) {
+	// loads truth or solution polygons, solution polygons go into the slices if target is null
+    private boolean load(String path, boolean truth, Solution target) {
 		File f = new File(path);
 		String what = truth ? "truth" : "solution";
 		debug("Loading " + what + " file from " + path);
-		String line = null;
-		int lineNo = 0;
-		LineNumberReader lnr = null;
+		long start = System.nanoTime();
+		long polygonNanos = 0; // time spent on polygon construction
+		if (truth && BinaryTruth.isBinary(f)) {
+			try {
+				BinaryTruth.load(f, idToScan);
+				if (stats != null) stats.add("truth-parse", PhaseStats.ALL, System.nanoTime() - start);
+				return true;
+			}
+			catch (Exception e) {
+				info(target, "Error reading truth file");
+				e.printStackTrace();
+				return false;
+			}
+		}
+		CsvReader csv = null;
+		Scan scan = null;
+		byte[] scanIdBytes = null; // id of the last scan seen, lines are usually grouped by scan
+		double[] xs = new double[1024];
+		double[] ys = new double[1024];
 		try {
-			lnr = new LineNumberReader(new FileReader(f));
-			while (true) {
-				line = lnr.readLine();
-				lineNo++;
-				if (line == null) break;
-				line = line.replace(" " , "");
-				if (line.isEmpty()) continue;
+			csv = new CsvReader(f);
+			while (csv.nextLine()) {
+				if (csv.isEmpty()) continue;
 				
 				// Patient_1,100,struct,x1,y1,x2,y2,...
 				// or special lines:
@@ -168,38 +588,41 @@ public class Scorer {
 				// #Patient_1,slice,SEED,x,y // not used in scorer
 				
 				boolean specLine = false;
-				if (line.startsWith("#")) {
+				if (csv.skip('#')) {
 					if (!truth) continue;
-					line = line.substring(1);
 					specLine = true;
 				}
-				String[] parts = line.split(",");
-				String id = parts[0];
-				Scan scan = idToScan.get(id);
-				if (scan == null) {
-					if (truth) {
-						scan = new Scan(id);
-		    			idToScan.put(id, scan);
-					}
-					else {
-						info("Unknown scan id found in solution file at line " + lineNo + ": " + id);
-						return false;
+				csv.nextField();
+				if (scan == null || !csv.fieldEquals(scanIdBytes)) {
+					String id = csv.fieldString();
+					scan = idToScan.get(id);
+					if (scan == null) {
+						if (truth) {
+							scan = new Scan(id);
+			    			idToScan.put(id, scan);
+						}
+						else {
+							info(target, "Unknown scan id found in solution file at line " + csv.lineNo + ": " + id);
+							return false;
+						}
 					}
+					scanIdBytes = id.getBytes(StandardCharsets.UTF_8);
 				}
 				
-				int sliceOrdinal = Integer.parseInt(parts[1]);
-				String struct = parts[2];
+				csv.nextField();
+				int sliceOrdinal = csv.fieldInt();
+				csv.nextField();
 				
 				if (specLine) {
-					if (struct.equals("SIZES")) {
+					if (csv.fieldEquals(SIZES_BYTES)) {
 						//          0 1     2 3 4 5  6  7  8
 						// #Patient_1,0,SIZES,w,h,N,dx,dy,dz
-						scan.w = Integer.parseInt(parts[3]);
-						scan.h = Integer.parseInt(parts[4]);
-						scan.N = Integer.parseInt(parts[5]);
-						scan.dx = Double.parseDouble(parts[6]);
-						scan.dy = Double.parseDouble(parts[7]);
-						scan.dz = Double.parseDouble(parts[8]);
+						csv.nextField(); scan.w = csv.fieldInt();
+						csv.nextField(); scan.h = csv.fieldInt();
+						csv.nextField(); scan.N = csv.fieldInt();
+						csv.nextField(); scan.dx = csv.fieldDouble();
+						csv.nextField(); scan.dy = csv.fieldDouble();
+						csv.nextField(); scan.dz = csv.fieldDouble();
 						for (int i = 1; i <= scan.N; i++) {
 							Slice s = new Slice();
 							s.id = "" + i;
@@ -212,148 +635,202 @@ public class Scorer {
 					}
 				}
 				
-				boolean ok = false;
-				for (String s: STRUCTURES) {
-					if (s.equals(struct)) ok = true;
-				}
-				if (!ok) {
-					info("Unknown structure name found in solution file at line " + lineNo + ": " + struct);
+				int structIndex = csv.fieldIndex(STRUCTURE_BYTES);
+				if (structIndex == -1) {
+					info(target, "Unknown structure name found in solution file at line " + csv.lineNo + ": " + csv.fieldString());
 					return false;
 				}
+				String struct = STRUCTURES[structIndex];
 				
 				if (scan.slices.size() < sliceOrdinal) {
 					if (!truth) {
-						info("Unknown slice id found in solution file at line " + lineNo + ": " + id + ", " + sliceOrdinal);
+						info(target, "Unknown slice id found in solution file at line " + csv.lineNo + ": " + scan.id + ", " + sliceOrdinal);
 						return false;
 					}
 				}
 				Slice slice = scan.slices.get(sliceOrdinal - 1);				
 				
-				Map<String, List<Polygon>> nameToPolys = truth ? slice.nameToTruthPolygons : slice.nameToSolutionPolygons;
+				Map<String, List<Polygon>> nameToPolys = truth ? slice.nameToTruthPolygons :
+						target == null ? slice.nameToSolutionPolygons : target.polygonsToLoad(slice);
 				List<Polygon> polygons = nameToPolys.get(struct);
 				if (polygons == null) {
 					polygons = new Vector<>();
 					nameToPolys.put(struct, polygons);
 				}
 				
-				int pos = line.lastIndexOf(struct) + struct.length() + 1;
-				line = line.substring(pos);
-				P2[] points = coordStringToPoints(line);
+				int n = 0;
+				while (csv.nextField()) {
+					if (!csv.hasNextField()) break; // odd number of coordinates, last one is ignored
+					if (n == xs.length) {
+						xs = Arrays.copyOf(xs, 2 * n);
+						ys = Arrays.copyOf(ys, 2 * n);
+					}
+					xs[n] = csv.fieldDouble();
+					csv.nextField();
+					ys[n] = csv.fieldDouble();
+					n++;
+				}
+				if (n == 0) {
+					throw new IllegalArgumentException("No points");
+				}
 				
-		    	Polygon p = new Polygon(points); 
+				long t0 = stats == null ? 0 : System.nanoTime();
+		    	Polygon p = new Polygon(Arrays.copyOf(xs, n), Arrays.copyOf(ys, n)); 
 				polygons.add(p);
+				if (stats != null) {
+					long t = System.nanoTime() - t0;
+					polygonNanos += t;
+					stats.add(what + "-polygon", structIndex, t);
+					stats.count(what + "-polygons", 1);
+					stats.count(what + "-vertices", n);
+				}
 			}
 		} 
 		catch (Exception e) {
-			info("Error reading solution file");
-			info("Line #" + lineNo + ": " + line);
+			info(target, "Error reading solution file");
+			info(target, "Line #" + (csv == null ? 0 : csv.lineNo) + ": " + (csv == null ? null : csv.lineString()));
 			e.printStackTrace();
 			return false;
 		}
 		finally {
-			try {
-				lnr.close();
-			} 
-			catch (Exception e) {
-				// nothing
-			}
+			if (csv != null) csv.close();
+			if (stats != null) stats.add(what + "-parse", PhaseStats.ALL, System.nanoTime() - start - polygonNanos);
 		}
 		return true;
 	}
     
+	/**
+	 * Scores the given scans, using a fork-join pool of 'threads' workers if threads > 1.
+	 * Scans and slice ranges are independent tasks, each slice's Metric lands in its own
+	 * array position, and the caller sums them in scan and slice order, so the totals are
+	 * bit-identical to the sequential path.
+	 */
+	public List<Metric[]> score(List<Scan> scans) {
+		List<Metric[]> ret = new ArrayList<>();
+		if (threads <= 1) {
+			for (Scan scan: scans) ret.add(score(scan));
+			return ret;
+		}
+		final List<RecursiveAction> tasks = new ArrayList<>();
+		for (Scan scan: scans) {
+			Metric[] result = new Metric[scan.slices.size()];
+			ret.add(result);
+			tasks.add(new SliceTask(scan, result, 0, result.length));
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			pool.invoke(new RecursiveAction() {
+				@Override
+				protected void compute() {
+					invokeAll(tasks);
+				}
+			});
+		}
+		finally {
+			pool.shutdown();
+		}
+		return ret;
+	}
+	
 	public Metric[] score(Scan scan) {
 		Metric[] ret = new Metric[scan.slices.size()];
 		for (int i = 0; i < scan.slices.size(); i++) {
-			Slice slice = scan.slices.get(i);
-			Metric m = new Metric();
-			for (String struct: STRUCTURES) {
-				double areaTruth = 0;
-				List<Polygon> truthPolygons = slice.nameToTruthPolygons.get(struct);
-				if (truthPolygons != null) {
-					for (Polygon p: truthPolygons) areaTruth += p.area;
-				}
-				double areaSolution = 0;
-				List<Polygon> solutionPolygons = slice.nameToSolutionPolygons.get(struct);
-				if (solutionPolygons != null) {
-					for (Polygon p: solutionPolygons) areaSolution += p.area;
+			ret[i] = score(scan, scan.slices.get(i));
+		}
+		return ret;
+	}
+	
+	public Metric score(Scan scan, Slice slice) {
+		return score(scan, slice, slice.nameToSolutionPolygons);
+	}
+	
+	/**
+	 * Scores a truth slice against the given solution polygons of the slice.
+	 */
+	public Metric score(Scan scan, Slice slice, Map<String, List<Polygon>> nameToSolutionPolygons) {
+		Metric m = new Metric();
+		for (int si = 0; si < STRUCTURES.length; si++) {
+			String struct = STRUCTURES[si];
+			double areaTruth = 0;
+			List<Polygon> truthPolygons = slice.nameToTruthPolygons.get(struct);
+			if (truthPolygons != null) {
+				for (Polygon p: truthPolygons) areaTruth += p.area;
+			}
+			double areaSolution = 0;
+			List<Polygon> solutionPolygons = nameToSolutionPolygons.get(struct);
+			if (solutionPolygons != null) {
+				for (Polygon p: solutionPolygons) areaSolution += p.area;
+			}
+			if (areaTruth == 0) { 
+				if (areaSolution == 0) { // neither exist
+					// nothing to do
 				}
-				if (areaTruth == 0) { 
-					if (areaSolution == 0) { // neither exist
-						// nothing to do
-					}
-					else { // no truth, false sol for Tumor, otherwise ignore
-						if (struct.equals(TUMOR_NAME)) {
-							m.name2fp.put(struct, areaSolution);
-						}
+				else { // no truth, false sol for Tumor, otherwise ignore
+					if (struct.equals(TUMOR_NAME)) {
+						m.name2fp.put(struct, overlapEngine.area(scan, slice, struct, solutionPolygons, false));
 					}
 				}
-				else {
-					if (areaSolution == 0) { // truth, no sol
-						m.name2fn.put(struct, areaTruth);
-					}
-					else { // both exist, calc tp,fp,fn
-						Area shapeT = new Area();
-						for (Polygon p: truthPolygons) shapeT.add(p.shape);
-						Area shapeS = new Area();
-						for (Polygon p: solutionPolygons) shapeS.add(p.shape);
-						// recalc areas to use the union
-						areaTruth = area(shapeT);
-						areaSolution = area(shapeS);
-						
-						shapeT.intersect(shapeS);
-						double overlap = area(shapeT);
-						m.name2tp.put(struct, overlap);
-						m.name2fp.put(struct, areaSolution - overlap);
-						m.name2fn.put(struct, areaTruth - overlap);
+			}
+			else {
+				if (areaSolution == 0) { // truth, no sol
+					m.name2fn.put(struct, overlapEngine.area(scan, slice, struct, truthPolygons, true));
+				}
+				else { // both exist, calc tp,fp,fn
+					long t0 = stats == null ? 0 : System.nanoTime();
+					double[] tpFpFn = overlap(scan, slice, struct, truthPolygons, solutionPolygons);
+					if (stats != null) {
+						stats.slice("overlap", scan.id, Integer.parseInt(slice.id), si, 
+								vertices(truthPolygons) + vertices(solutionPolygons), System.nanoTime() - t0);
 					}
+					m.name2tp.put(struct, tpFpFn[0]);
+					m.name2fp.put(struct, tpFpFn[1]);
+					m.name2fn.put(struct, tpFpFn[2]);
 				}
-			} // for structures
-			ret[i] = m;
+			}
+		} // for structures
+		return m;
+	}
+	
+	private static int vertices(List<Polygon> polygons) {
+		int ret = 0;
+		for (Polygon p: polygons) ret += p.size();
+		return ret;
+	}
+	
+	// overlap calculation through the slice cache, if there is one
+	private double[] overlap(Scan scan, Slice slice, String struct, List<Polygon> truth, List<Polygon> solution) {
+		if (cache == null) return overlapEngine.overlap(scan, slice, struct, truth, solution);
+		String key = SliceCache.key(scan, slice, struct, solution);
+		double[] ret = cache.get(key);
+		if (ret == null) {
+			ret = overlapEngine.overlap(scan, slice, struct, truth, solution);
+			cache.put(key, ret);
 		}
 		return ret;
 	}
 	
-	// based on http://stackoverflow.com/questions/2263272/how-to-calculate-the-area-of-a-java-awt-geom-area
-	private double area(Area shape) {
-		PathIterator i = shape.getPathIterator(null);
-		double a = 0.0;
-        double[] coords = new double[6];
-        double startX = Double.NaN, startY = Double.NaN;
-        Line2D segment = new Line2D.Double(Double.NaN, Double.NaN, Double.NaN, Double.NaN);
-        while (! i.isDone()) {
-            int segType = i.currentSegment(coords);
-            double x = coords[0], y = coords[1];
-            switch (segType) {
-            case PathIterator.SEG_CLOSE:
-                segment.setLine(segment.getX2(), segment.getY2(), startX, startY);
-                a += area(segment);
-                startX = startY = Double.NaN;
-                segment.setLine(Double.NaN, Double.NaN, Double.NaN, Double.NaN);
-                break;
-            case PathIterator.SEG_LINETO:
-                segment.setLine(segment.getX2(), segment.getY2(), x, y);
-                a += area(segment);
-                break;
-            case PathIterator.SEG_MOVETO:
-                startX = x;
-                startY = y;
-                segment.setLine(Double.NaN, Double.NaN, x, y);
-                break;
-            }
-            i.next();
-        }
-        if (Double.isNaN(a)) {
-            throw new IllegalArgumentException("PathIterator contains an open path");
-        } 
-        else {
-            return 0.5 * Math.abs(a);
-        }
-    }
-
-    private double area(Line2D seg) {
-        return seg.getX1() * seg.getY2() - seg.getX2() * seg.getY1();
-    }
- 
+	// Scores slices [lo, hi) of a scan, splitting the range until it is small enough
+	@SuppressWarnings("serial")
+	private class SliceTask extends RecursiveAction {
+		private final Scan scan;
+		private final Metric[] ret;
+		private final int lo, hi;
+		
+		private SliceTask(Scan scan, Metric[] ret, int lo, int hi) {
+			this.scan = scan; this.ret = ret; this.lo = lo; this.hi = hi;
+		}
+		
+		@Override
+		protected void compute() {
+			if (hi - lo <= SLICE_BATCH) {
+				for (int i = lo; i < hi; i++) ret[i] = score(scan, scan.slices.get(i));
+				return;
+			}
+			int mid = (lo + hi) >>> 1;
+			invokeAll(new SliceTask(scan, ret, lo, mid), new SliceTask(scan, ret, mid, hi));
+		}
+	}
+	
 	private void writeScore(double s) {
 		PrintWriter resultLog = null;
 		try {
@@ -372,6 +849,11 @@ public class Scorer {
 		if (DEBUG) System.out.println(s);
 	}
 	
+	private void info(Solution solution, String s) {
+		if (solution != null && solution.messages != null) solution.messages.add(s);
+		else info(solution == null ? s : solution.path + ": " + s);
+	}
+	
 	private void info(String s) {
 		System.out.println("INFO: " + s);
 		infoLog.println(s);
@@ -380,18 +862,70 @@ public class Scorer {
 	
 	public static void main(String[] args) throws Exception {
 		if (args.length < 4) {
-			System.out.println("Usage: Scorer <provisional|final> <path-to-truth> <path-to-solution> <dir-of-output> [DEBUG]");
+			System.out.println("Usage: Scorer <provisional|final> <path-to-truth> <path-to-solution> <dir-of-output> [DEBUG] [-threads <n>] [-overlap <area|raster|rle|verify>] [-supersample <n>] [-no-prune] [-cache <path>] [-cache-size <entries>] [-watch] [-serve <port>] [-batch] [-stats] [-volumetric]");
+			System.out.println("  the solution may be a directory of label masks <scan id>/[Set_xxx/]mask<slice>.png, band i or value i + 1 is structure i");
+			System.out.println("  -overlap: area (default) scores exact polygon areas, raster and rle score counts of pixels with their center inside,\n" +
+					"    raster with -supersample n counts n x n samples per pixel, verify scores like area and reports the raster differences");
+			System.out.println("  -batch: the solution is a comma separated list of files, directories or glob patterns, all scored against the truth,\n" +
+					"    with -volumetric the 3D results of the n-th solution go to volumetric-<n>.txt");
 			System.exit(1);
 		}
 		String phase = args[0];
 		String truthPath = args[1];
 		String solPath = args[2];
 		String outDir = args[3]; 
-		if (args.length > 4 && args[4].equals("DEBUG")) {
-			Scorer.DEBUG = true;
+		Scorer scorer = new Scorer();
+		String overlap = "area";
+		int supersample = 1;
+		boolean prune = true;
+		boolean watch = false;
+		int servePort = -1;
+		boolean batch = false;
+		boolean withStats = false;
+		for (int i = 4; i < args.length; i++) {
+			if (args[i].equals("DEBUG")) Scorer.DEBUG = true;
+			if (args[i].equals("-threads")) scorer.threads = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-overlap")) overlap = args[i+1];
+			if (args[i].equals("-supersample")) supersample = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-no-prune")) prune = false;
+			if (args[i].equals("-cache")) scorer.cachePath = args[i+1];
+			if (args[i].equals("-cache-size")) scorer.cacheSize = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-watch")) watch = true;
+			if (args[i].equals("-serve")) servePort = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-batch")) batch = true;
+			if (args[i].equals("-stats")) withStats = true;
+			if (args[i].equals("-volumetric")) scorer.volumetric = true;
+		}
+		AreaOverlapEngine areaEngine = new AreaOverlapEngine(prune);
+		scorer.overlapEngine = areaEngine;
+		if (overlap.equals("raster")) {
+			scorer.overlapEngine = new RasterOverlapEngine(supersample);
+		}
+		else if (overlap.equals("rle")) {
+			scorer.overlapEngine = new RunMaskOverlapEngine();
+		}
+		else if (overlap.equals("verify")) {
+			scorer.overlapEngine = new VerifyingOverlapEngine(areaEngine, new RasterOverlapEngine(supersample));
 		}
-		double score = new Scorer().run(phase, truthPath, solPath, outDir);
+		if (withStats) {
+			scorer.stats = new PhaseStats(20);
+			areaEngine.stats = scorer.stats;
+		}
+		if (watch) {
+			scorer.watch(phase, truthPath, solPath, outDir);
+		}
+		if (servePort != -1) {
+			scorer.serve(phase, truthPath, solPath, outDir, servePort);
+		}
+		if (batch) {
+			scorer.batch(phase, truthPath, solutionFiles(solPath), outDir);
+			return;
+		}
+		double score = scorer.run(phase, truthPath, solPath, outDir);
 		System.out.println("Score: " + score);
+		if (scorer.overlapEngine instanceof VerifyingOverlapEngine && !Scorer.DEBUG) {
+			System.out.println(((VerifyingOverlapEngine) scorer.overlapEngine).report());
+		}
 	}
 }
 
@@ -0,0 +1,163 @@
+package scorer;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.LineNumberReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import common.Polygon;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Persistent cache of overlap results, keyed by scan, slice, structure and a hash of the
+ * solution polygons. Used to skip the clipping of slices that didn't change since an earlier
+ * submission. The file starts with a header describing the truth file and the overlap engine,
+ * entries are dropped if either changed. The cache holds at most maxEntries entries, when saving
+ * the least recently used ones beyond that are dropped, so that switching back to an earlier
+ * submission still finds its slices while the file doesn't grow without bound in watch, serve
+ * or batch mode. Entries are saved least recently used first, which keeps their order across runs.
+ *
+ * File format, one entry per line:
+ * Patient_1,100,Tumor,hash,tp,fp,fn
+ */
+public class SliceCache {
+	private final File file;
+	private final String header;
+	public static final int DEFAULT_MAX_ENTRIES = 200000; // 300 submissions of the sample's size, about 15 MB
+	public int maxEntries = DEFAULT_MAX_ENTRIES;
+
+	private static class Entry {
+		final String key;
+		final double[] tpFpFn;
+		volatile long used; // clock value of the last use
+
+		Entry(String key, double[] tpFpFn, long used) {
+			this.key = key; this.tpFpFn = tpFpFn; this.used = used;
+		}
+	}
+
+	private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+	private final AtomicLong clock = new AtomicLong();
+	private final AtomicInteger hits = new AtomicInteger();
+	private final AtomicInteger misses = new AtomicInteger();
+
+	public SliceCache(File file, File truthFile, String engine) {
+		this.file = file;
+		header = "#" + truthFile.getAbsolutePath() + "," + truthFile.length() + "," +
+				truthFile.lastModified() + "," + engine;
+		if (!file.exists()) return;
+
+		String line = null;
+		try {
+			LineNumberReader lnr = new LineNumberReader(new FileReader(file));
+			line = lnr.readLine();
+			if (header.equals(line)) {
+				while (true) {
+					line = lnr.readLine();
+					if (line == null) break;
+					int pos = line.lastIndexOf(',');
+					pos = line.lastIndexOf(',', pos - 1);
+					pos = line.lastIndexOf(',', pos - 1);
+					String[] values = line.substring(pos + 1).split(",");
+					String key = line.substring(0, pos);
+					entries.put(key, new Entry(key, new double[] {
+							Double.parseDouble(values[0]), Double.parseDouble(values[1]), Double.parseDouble(values[2])},
+							clock.incrementAndGet()));
+				}
+			}
+			lnr.close();
+		}
+		catch (Exception e) { // start with an empty cache
+			System.out.println("Can't read slice cache " + file.getAbsolutePath() + ": " + line);
+			entries.clear();
+		}
+	}
+
+	public static String key(Scan scan, Slice slice, String struct, List<Polygon> solution) {
+		return scan.id + "," + slice.id + "," + struct + "," + Long.toHexString(hash(solution));
+	}
+
+	// 64 bit FNV-1a hash of the polygon coordinates
+	private static long hash(List<Polygon> polygons) {
+		long h = 0xcbf29ce484222325L;
+		for (Polygon p: polygons) {
+			h = (h ^ p.size()) * 0x100000001b3L;
+			for (int i = 0; i < p.size(); i++) {
+				h = (h ^ Double.doubleToLongBits(p.xs[i])) * 0x100000001b3L;
+				h = (h ^ Double.doubleToLongBits(p.ys[i])) * 0x100000001b3L;
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Returns the cached {tp, fp, fn}, or null.
+	 */
+	public double[] get(String key) {
+		Entry e = entries.get(key);
+		if (e == null) {
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		e.used = clock.incrementAndGet();
+		return e.tpFpFn;
+	}
+
+	public void put(String key, double[] tpFpFn) {
+		entries.put(key, new Entry(key, tpFpFn, clock.incrementAndGet()));
+	}
+
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Drops the least recently used entries beyond maxEntries and writes the others to the file.
+	 */
+	public void save() {
+		List<Entry> list = new ArrayList<>(entries.values());
+		Collections.sort(list, new Comparator<Entry>() {
+			@Override
+			public int compare(Entry a, Entry b) {
+				return Long.compare(a.used, b.used);
+			}
+		});
+		int drop = Math.max(0, list.size() - maxEntries);
+		for (int i = 0; i < drop; i++) entries.remove(list.get(i).key);
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		try {
+			PrintWriter out = new PrintWriter(tmp);
+			out.println(header);
+			for (int i = drop; i < list.size(); i++) {
+				Entry e = list.get(i);
+				double[] v = e.tpFpFn;
+				// Double.toString round-trips exactly
+				out.println(e.key + "," + v[0] + "," + v[1] + "," + v[2]);
+			}
+			out.close();
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				System.out.println("Can't write slice cache " + file.getAbsolutePath());
+			}
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public String report() {
+		int h = hits.getAndSet(0);
+		int m = misses.getAndSet(0);
+		return "Slice cache: " + h + " hits, " + m + " recalculated, " + entries.size() + " entries";
+	}
+}
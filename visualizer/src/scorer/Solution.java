@@ -0,0 +1,42 @@
+package scorer;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import common.Polygon;
+import common.Slice;
+
+/**
+ * The polygons of one solution file, kept apart from the truth slices, so that several
+ * solutions can be loaded and scored against the same truth at the same time.
+ */
+public class Solution {
+	public final String path;
+	public List<String> messages; // if set, info messages are collected here instead of written at once
+	private final Map<Slice, Map<String, List<Polygon>>> sliceToPolygons = new HashMap<>();
+
+	public Solution(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Returns the solution polygons of a truth slice by structure name, empty if there are none.
+	 */
+	public Map<String, List<Polygon>> polygons(Slice slice) {
+		Map<String, List<Polygon>> ret = sliceToPolygons.get(slice);
+		if (ret == null) return Collections.emptyMap();
+		return ret;
+	}
+
+	// the map that the loader adds polygons of the slice to
+	Map<String, List<Polygon>> polygonsToLoad(Slice slice) {
+		Map<String, List<Polygon>> ret = sliceToPolygons.get(slice);
+		if (ret == null) {
+			ret = new HashMap<>();
+			sliceToPolygons.put(slice, ret);
+		}
+		return ret;
+	}
+}
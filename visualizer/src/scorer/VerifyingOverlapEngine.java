@@ -0,0 +1,76 @@
+package scorer;
+
+import static common.Utils.f;
+
+import java.util.List;
+
+import common.Polygon;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Runs a candidate engine next to the exact Area based one and collects the differences.
+ * The exact result is returned, so scores are not affected.
+ */
+public class VerifyingOverlapEngine implements OverlapEngine {
+	private final OverlapEngine reference;
+	private final OverlapEngine candidate;
+	private int count = 0;
+	private double[] sumRef = new double[3];
+	private double[] sumAbsDiff = new double[3];
+	private double maxDiff = 0;
+	private String maxDiffAt = "-";
+	
+	public VerifyingOverlapEngine(AreaOverlapEngine reference, OverlapEngine candidate) {
+		this.reference = reference;
+		this.candidate = candidate;
+	}
+
+	@Override
+	public double[] overlap(Scan scan, Slice slice, String struct, List<Polygon> truth, List<Polygon> solution) {
+		double[] ref = reference.overlap(scan, slice, struct, truth, solution);
+		double[] cand = candidate.overlap(scan, slice, struct, truth, solution);
+		String where = scan.id + " #" + slice.id + " " + struct;
+		synchronized (this) {
+			count++;
+			for (int i = 0; i < 3; i++) {
+				double d = Math.abs(cand[i] - ref[i]);
+				sumRef[i] += ref[i];
+				sumAbsDiff[i] += d;
+				if (d > maxDiff) {
+					maxDiff = d;
+					maxDiffAt = where;
+				}
+			}
+		}
+		if (Scorer.DEBUG) {
+			System.out.println("  verify " + where + ": \ttp " + f(cand[0] - ref[0]) + 
+					"\tfp " + f(cand[1] - ref[1]) + "\tfn " + f(cand[2] - ref[2]));
+		}
+		return ref;
+	}
+	
+	@Override
+	public double area(Scan scan, Slice slice, String struct, List<Polygon> polygons, boolean truth) {
+		return reference.area(scan, slice, struct, polygons, truth);
+	}
+	
+	@Override
+	public synchronized String report() {
+		String[] names = new String[] {"tp", "fp", "fn"};
+		String ret = "Overlap verification on " + count + " slices:";
+		for (int i = 0; i < 3; i++) {
+			double rel = sumRef[i] > 0 ? 100 * sumAbsDiff[i] / sumRef[i] : 0;
+			ret += "\n  " + names[i] + ": \tsum of abs diffs " + f(sumAbsDiff[i]) + " (" + f(rel) + "%)";
+		}
+		ret += "\n  max diff: " + f(maxDiff) + " at " + maxDiffAt;
+		String referenceReport = reference.report();
+		if (referenceReport != null) ret += "\n" + referenceReport;
+		return ret;
+	}
+	
+	@Override
+	public String toString() {
+		return reference.toString(); // results are those of the reference
+	}
+}
@@ -0,0 +1,136 @@
+package scorer;
+
+import static common.Polygon.STRUCTURES;
+import static common.Polygon.TUMOR_NAME;
+import static common.Utils.f;
+import static common.Utils.f6;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import common.Polygon;
+import common.RunMask;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Volumetric comparison of truth and solution. The contours of each slice are rasterized at
+ * pixel centers into run-length masks, like RasterOverlapEngine without supersampling, the truth
+ * masks are those kept with the slices. The voxel counts of all slices of a scan are summed
+ * and scaled by the voxel size dx * dy * dz, so
+ * scans with different slice spacing are weighted by their real volume. As in the slice
+ * based score, solution voxels of vessel structures are ignored on slices without truth
+ * for that structure.
+ */
+public class VolumeScorer {
+
+	public static class Result {
+		public final String scanId;
+		public final double[][] tpFpFn = new double[STRUCTURES.length][3]; // mm3, by structure index
+
+		Result(String scanId) {
+			this.scanId = scanId;
+		}
+
+		/**
+		 * Returns the 3D Dice coefficient of a structure, or NaN if neither truth nor solution has it.
+		 */
+		public double dice(int si) {
+			double[] r = tpFpFn[si];
+			double d = 2 * r[0] + r[1] + r[2];
+			return d == 0 ? Double.NaN : 2 * r[0] / d;
+		}
+	}
+
+	/**
+	 * Scores the given scans on 'threads' workers, one scan per task. If solution is null the
+	 * solution polygons are taken from the slices.
+	 */
+	public static List<Result> score(List<Scan> scans, final Solution solution, int threads) throws Exception {
+		if (threads <= 1) {
+			List<Result> ret = new ArrayList<>();
+			for (Scan scan: scans) ret.add(score(scan, solution));
+			return ret;
+		}
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Result>> futures = new ArrayList<>();
+			for (final Scan scan: scans) {
+				futures.add(pool.submit(new Callable<Result>() {
+					@Override
+					public Result call() {
+						return score(scan, solution);
+					}
+				}));
+			}
+			List<Result> ret = new ArrayList<>();
+			for (Future<Result> f: futures) {
+				try {
+					ret.add(f.get());
+				}
+				catch (ExecutionException e) {
+					throw (Exception) e.getCause();
+				}
+			}
+			return ret;
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	public static Result score(Scan scan, Solution solution) {
+		Result ret = new Result(scan.id);
+		long[][] counts = new long[STRUCTURES.length][3];
+		for (Slice slice: scan.slices) {
+			Map<String, List<Polygon>> nameToSolution = solution == null ? slice.nameToSolutionPolygons : solution.polygons(slice);
+			for (int si = 0; si < STRUCTURES.length; si++) {
+				String struct = STRUCTURES[si];
+				List<Polygon> truth = slice.nameToTruthPolygons.get(struct);
+				List<Polygon> sol = nameToSolution.get(struct);
+				boolean hasTruth = truth != null && !truth.isEmpty();
+				boolean hasSolution = sol != null && !sol.isEmpty();
+				if (!hasTruth && (!hasSolution || !struct.equals(TUMOR_NAME))) continue;
+				long[] c = RunMask.compare(slice.truthMask(si, scan.w, scan.h), RunMask.of(sol, scan.w, scan.h));
+				for (int i = 0; i < 3; i++) counts[si][i] += c[i];
+			}
+		}
+		double voxel = scan.dx * scan.dy * scan.dz;
+		for (int si = 0; si < STRUCTURES.length; si++) {
+			for (int i = 0; i < 3; i++) ret.tpFpFn[si][i] = counts[si][i] * voxel;
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns a tab separated table of the volumes and 3D Dice of each scan and structure,
+	 * followed by the mean Dice of each structure over the scans that have it.
+	 */
+	public static String report(List<Result> results) {
+		StringBuilder sb = new StringBuilder("scan\tstructure\ttp_mm3\tfp_mm3\tfn_mm3\tdice");
+		double[] sums = new double[STRUCTURES.length];
+		int[] cnts = new int[STRUCTURES.length];
+		for (Result r: results) {
+			for (int si = 0; si < STRUCTURES.length; si++) {
+				double[] v = r.tpFpFn[si];
+				double dice = r.dice(si);
+				sb.append("\n" + r.scanId + "\t" + STRUCTURES[si] + "\t" + f(v[0]) + "\t" + f(v[1]) + "\t" + f(v[2]) +
+						"\t" + (Double.isNaN(dice) ? "-" : f6(dice)));
+				if (!Double.isNaN(dice)) {
+					sums[si] += dice;
+					cnts[si]++;
+				}
+			}
+		}
+		for (int si = 0; si < STRUCTURES.length; si++) {
+			sb.append("\nmean\t" + STRUCTURES[si] + "\t\t\t\t" + (cnts[si] == 0 ? "-" : f6(sums[si] / cnts[si])));
+		}
+		return sb.toString();
+	}
+}
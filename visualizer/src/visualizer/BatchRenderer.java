@@ -0,0 +1,127 @@
+package visualizer;
+
+import static common.Polygon.STRUCTURES;
+import static common.Polygon.TUMOR_NAME;
+
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import common.Scan;
+import common.Slice;
+
+/**
+ * Writes slices with their truth, solution and seed overlays to PNG files without a display,
+ * one file per slice: <dir>/<scan id>/Slice_<k>.png. Each slice is a separate task: its CT
+ * image is decoded, drawn and written on a thread pool, slices of all scans in parallel.
+ */
+public class BatchRenderer {
+	private final File dir;
+	private final GrayLut lut;
+	private final boolean tumorOnly;
+	private final int threads;
+	private final Overlay overlay = new Overlay();
+	private final Font font = new Font("SansSerif", Font.PLAIN, 20);
+
+	/**
+	 * If tumorOnly is set only slices that have tumor truth or solution contours are written.
+	 */
+	public BatchRenderer(File dir, int loGray, int hiGray, boolean tumorOnly, int threads) {
+		this.dir = dir;
+		this.lut = new GrayLut(loGray, hiGray);
+		this.tumorOnly = tumorOnly;
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Renders the scans, returns the number of slices written.
+	 */
+	public int render(String[] scanIds, Map<String, Scan> idToScan) {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<Boolean>> futures = new ArrayList<>();
+		for (String id: scanIds) {
+			final Scan scan = idToScan.get(id);
+			final File scanDir = new File(dir, scan.id);
+			scanDir.mkdirs();
+			for (int k = 0; k < scan.slices.size(); k++) {
+				final int slice = k;
+				if (tumorOnly && !hasTumor(scan.slices.get(k))) continue;
+				futures.add(pool.submit(new Callable<Boolean>() {
+					@Override
+					public Boolean call() throws Exception {
+						return renderSlice(scan, slice, scanDir);
+					}
+				}));
+			}
+		}
+		int cnt = 0;
+		for (Future<Boolean> f: futures) {
+			try {
+				if (f.get()) cnt++;
+			}
+			catch (ExecutionException e) {
+				e.getCause().printStackTrace();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				break;
+			}
+		}
+		pool.shutdownNow();
+		return cnt;
+	}
+
+	private static boolean hasTumor(Slice slice) {
+		return slice.nameToTruthPolygons.containsKey(TUMOR_NAME) ||
+				slice.nameToSolutionPolygons.containsKey(TUMOR_NAME);
+	}
+
+	private boolean renderSlice(Scan scan, int k, File scanDir) throws Exception {
+		File in = VolumeLoader.imageFile(scan, k);
+		if (!in.exists()) {
+			System.out.println("Can't find image file: " + in.getAbsolutePath());
+			return false;
+		}
+		Volume v = new Volume(scan.w, scan.h, 1);
+		VolumeLoader.decodeSlice(in, v, 0);
+		int[] values = new int[scan.w * scan.h];
+		v.axial(0, values);
+
+		BufferedImage img = new BufferedImage(scan.w, scan.h, BufferedImage.TYPE_INT_RGB);
+		int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		for (int i = 0; i < values.length; i++) pixels[i] = lut.rgb[values[i]];
+
+		Graphics2D g2 = img.createGraphics();
+		g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+		g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+		boolean[] structures = new boolean[STRUCTURES.length];
+		for (int i = 0; i < structures.length; i++) structures[i] = true;
+		overlay.draw(g2, scan, scan.slices.get(k), true, true, structures);
+		g2.setColor(Color.white);
+		g2.setFont(font);
+		int k1 = k + 1;
+		g2.drawString(scan.id + " #" + k1, 10, 2 * font.getSize());
+		g2.dispose();
+
+		File out = new File(scanDir, "Slice_" + k1 + ".png");
+		if (!ImageIO.write(img, "png", out)) {
+			System.out.println("Can't write " + out.getAbsolutePath());
+			return false;
+		}
+		return true;
+	}
+}
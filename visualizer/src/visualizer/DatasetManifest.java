@@ -0,0 +1,179 @@
+package visualizer;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.LineNumberReader;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Directory listings of a data directory saved between runs, so that a startup without
+ * -meta-in doesn't have to list every scan directory again. A listing is reused as long as
+ * the modification time of its directory is unchanged, which is the case until entries are
+ * added, removed or renamed. File contents are read on every run anyway.
+ *
+ * File format, tab separated, file names in listing order:
+ *   #manifest, version, data directory path, data directory modification time
+ *   d, scan id                                        (one per scan directory)
+ *   s, scan id, scan dir mtime, Set_ dir name, Set_ dir mtime, file count
+ *   f, file name                                      (file count lines after each s line)
+ */
+public class DatasetManifest {
+	public static final int VERSION = 1;
+
+	public static class ScanEntry {
+		final long dirMtime, setMtime;
+		public final String setName; // null if the scan has no Set_ directory
+		public final String[] files; // names in the Set_ directory
+
+		ScanEntry(long dirMtime, String setName, long setMtime, String[] files) {
+			this.dirMtime = dirMtime;
+			this.setName = setName;
+			this.setMtime = setMtime;
+			this.files = files;
+		}
+	}
+
+	private final File file;
+	private final File dataDir;
+	private long dataDirMtime = -1;
+	private List<String> scanIds; // null if not known
+	private final Map<String, ScanEntry> scans = new ConcurrentHashMap<>();
+	private volatile boolean changed = false;
+	private final AtomicInteger reused = new AtomicInteger();
+	private final AtomicInteger listed = new AtomicInteger();
+
+	public DatasetManifest(File file, File dataDir) {
+		this.file = file;
+		this.dataDir = dataDir;
+		if (!file.exists()) return;
+
+		String line = null;
+		try {
+			LineNumberReader lnr = new LineNumberReader(new FileReader(file));
+			line = lnr.readLine();
+			String[] header = line.split("\t");
+			if (header[0].equals("#manifest") && Integer.parseInt(header[1]) == VERSION &&
+					header[2].equals(dataDir.getAbsolutePath())) {
+				dataDirMtime = Long.parseLong(header[3]);
+				List<String> ids = new ArrayList<>();
+				while (true) {
+					line = lnr.readLine();
+					if (line == null) break;
+					String[] parts = line.split("\t");
+					if (parts[0].equals("d")) {
+						ids.add(parts[1]);
+					}
+					else if (parts[0].equals("s")) {
+						String[] files = new String[Integer.parseInt(parts[5])];
+						for (int i = 0; i < files.length; i++) {
+							files[i] = lnr.readLine().substring(2);
+						}
+						String setName = parts[3].isEmpty() ? null : parts[3];
+						scans.put(parts[1], new ScanEntry(Long.parseLong(parts[2]), setName,
+								Long.parseLong(parts[4]), files));
+					}
+				}
+				if (dataDirMtime != -1) scanIds = ids;
+			}
+			lnr.close();
+		}
+		catch (Exception e) { // start with an empty manifest
+			System.out.println("Can't read manifest " + file.getAbsolutePath() + ": " + line);
+			dataDirMtime = -1;
+			scanIds = null;
+			scans.clear();
+		}
+	}
+
+	/**
+	 * Returns the names of the scan directories in the data directory.
+	 */
+	public synchronized List<String> scanIds() {
+		long mtime = dataDir.lastModified();
+		if (scanIds != null && mtime == dataDirMtime) return scanIds;
+		List<String> ids = new ArrayList<>();
+		for (File f: dataDir.listFiles()) {
+			if (f.isDirectory()) ids.add(f.getName());
+		}
+		scanIds = ids;
+		dataDirMtime = mtime;
+		changed = true;
+		return ids;
+	}
+
+	/**
+	 * Returns the scan's Set_ directory and its file names, listing them again only if the
+	 * scan's directories changed. Can be called from several threads.
+	 */
+	public ScanEntry scan(String id) {
+		File top = new File(dataDir, id);
+		long dirMtime = top.lastModified();
+		ScanEntry e = scans.get(id);
+		if (e != null && e.dirMtime == dirMtime) {
+			if (e.setName == null || new File(top, e.setName).lastModified() == e.setMtime) {
+				reused.incrementAndGet();
+				return e;
+			}
+		}
+
+		String setName = null;
+		for (File f: top.listFiles()) { // find one with a name like Set_xxx
+			if (f.getName().startsWith("Set_")) {
+				setName = f.getName();
+				break;
+			}
+		}
+		long setMtime = 0;
+		String[] files = new String[0];
+		if (setName != null) {
+			File set = new File(top, setName);
+			setMtime = set.lastModified(); // before listing, a change while listing shows up next time
+			files = set.list();
+		}
+		e = new ScanEntry(dirMtime, setName, setMtime, files);
+		scans.put(id, e);
+		changed = true;
+		listed.incrementAndGet();
+		return e;
+	}
+
+	/**
+	 * Writes the manifest if anything was listed again.
+	 */
+	public synchronized void save() {
+		if (!changed) return;
+		File tmp = new File(file.getAbsolutePath() + ".tmp");
+		try {
+			PrintWriter out = new PrintWriter(tmp);
+			out.println("#manifest\t" + VERSION + "\t" + dataDir.getAbsolutePath() + "\t" +
+					(scanIds == null ? -1 : dataDirMtime));
+			if (scanIds != null) {
+				for (String id: scanIds) out.println("d\t" + id);
+			}
+			for (Map.Entry<String, ScanEntry> me: scans.entrySet()) {
+				ScanEntry e = me.getValue();
+				out.println("s\t" + me.getKey() + "\t" + e.dirMtime + "\t" +
+						(e.setName == null ? "" : e.setName) + "\t" + e.setMtime + "\t" + e.files.length);
+				for (String name: e.files) out.println("f\t" + name);
+			}
+			out.close();
+			file.delete();
+			if (!tmp.renameTo(file)) {
+				System.out.println("Can't write manifest " + file.getAbsolutePath());
+			}
+			changed = false;
+		}
+		catch (Exception e) {
+			e.printStackTrace();
+		}
+	}
+
+	public String report() {
+		return "Manifest: " + reused.getAndSet(0) + " scans reused, " + listed.getAndSet(0) + " listed";
+	}
+}
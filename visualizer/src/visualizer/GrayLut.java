@@ -0,0 +1,21 @@
+package visualizer;
+
+/**
+ * RGB gray values of all 16 bit voxel values for a window between lo (black) and hi (white).
+ */
+public class GrayLut {
+	public final int lo, hi;
+	public final int[] rgb = new int[65536];
+
+	public GrayLut(int lo, int hi) {
+		this.lo = lo;
+		this.hi = hi;
+		double graySpan = hi - lo;
+		for (int v = 0; v < rgb.length; v++) {
+			int c = (int) (255 * (v - lo) / graySpan);
+			if (c < 0) c = 0;
+			if (c > 255) c = 255;
+			rgb[v] = c | (c<<8) | (c<<16);
+		}
+	}
+}
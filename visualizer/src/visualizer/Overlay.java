@@ -0,0 +1,110 @@
+package visualizer;
+
+import static common.Polygon.STRUCTURES;
+import static common.Polygon.TUMOR_NAME;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import common.P2;
+import common.Polygon;
+import common.RunMask;
+import common.Scan;
+import common.Slice;
+
+/**
+ * Draws the truth and solution contours and the seed points of a slice, in image coordinates.
+ * Used both by the interactive view and the batch renderer. The areas are filled as pixel
+ * masks, the union of a structure's polygons once, the masks are kept for later repaints:
+ * truth masks with the slices, solution masks here.
+ */
+public class Overlay {
+	private static final int SEED_SIZE = 5;
+	private final Map<Slice, RunMask[]> solutionMasks = Collections.synchronizedMap(new WeakHashMap<Slice, RunMask[]>());
+
+	private Color truthBorderColor          = new Color(  0, 255, 255, 255);
+	private Color truthFillColor            = new Color(  0, 155, 255,  50);
+	private Color truthSeedColor            = new Color(255, 200, 200, 255);
+	private Color truthVesselBorderColor    = new Color(255,   0, 255, 200);
+	private Color truthVesselFillColor      = new Color(255,   0, 255,  50);
+	private Color solutionBorderColor	    = new Color(255, 255,   0, 255);
+	private Color solutionFillColor         = new Color(255, 255,   0,  50);
+	private Color solutionVesselBorderColor = new Color(255, 255, 125, 200);
+	private Color solutionVesselFillColor   = new Color(255, 255, 125,  50);
+
+	/**
+	 * Draws the overlays of the selected structures, structures[i] refers to STRUCTURES[i].
+	 */
+	public void draw(Graphics2D g2, Scan scan, Slice slice, boolean showTruth, boolean showSolution, boolean[] structures) {
+		if (showTruth) {
+			for (int i = 0; i < STRUCTURES.length; i++) {
+				if (!structures[i]) continue;
+				String struct = STRUCTURES[i];
+				Color borderC = i == 0 ? truthBorderColor : truthVesselBorderColor;
+				Color fillC = i == 0 ? truthFillColor : truthVesselFillColor;
+				List<Polygon> truthPolygons = slice.nameToTruthPolygons.get(struct);
+				if (truthPolygons != null) {
+					drawBorders(truthPolygons, g2, borderC);
+					fill(slice.truthMask(i, scan.w, scan.h), g2, fillC);
+				}
+				if (struct.equals(TUMOR_NAME) && slice.nameToSeedPoints.get(TUMOR_NAME) != null) {
+					for (P2 seed: slice.nameToSeedPoints.get(TUMOR_NAME)) {
+						g2.setColor(truthSeedColor);
+						int x = (int)seed.x;
+						int y = (int)seed.y;
+						int d = SEED_SIZE;
+						g2.drawLine(x - d, y - d, x + d, y + d);
+						g2.drawLine(x - d, y + d, x + d, y - d);
+					}
+				}
+			}
+		}
+
+		if (showSolution) {
+			for (int i = 0; i < STRUCTURES.length; i++) {
+				if (!structures[i]) continue;
+				String struct = STRUCTURES[i];
+				Color borderC = i == 0 ? solutionBorderColor : solutionVesselBorderColor;
+				Color fillC = i == 0 ? solutionFillColor : solutionVesselFillColor;
+				List<Polygon> ps = slice.nameToSolutionPolygons.get(struct);
+				if (ps != null) {
+					drawBorders(ps, g2, borderC);
+					fill(solutionMask(scan, slice, i, ps), g2, fillC);
+				}
+			}
+		}
+	}
+
+	private RunMask solutionMask(Scan scan, Slice slice, int struct, List<Polygon> ps) {
+		RunMask[] masks = solutionMasks.get(slice);
+		if (masks == null) {
+			masks = new RunMask[STRUCTURES.length];
+			solutionMasks.put(slice, masks);
+		}
+		RunMask ret = masks[struct];
+		if (ret == null) { // threads may build it at the same time, the results are the same
+			ret = RunMask.of(ps, scan.w, scan.h);
+			masks[struct] = ret;
+		}
+		return ret;
+	}
+	
+	private void drawBorders(List<Polygon> ps, Graphics2D g2, Color border) {
+		g2.setColor(border);
+		for (Polygon p: ps) g2.draw(p.getShape());
+	}
+	
+	private void fill(RunMask mask, Graphics2D g2, Color fill) {
+		g2.setColor(fill);
+		for (int r = 0; r < mask.rows; r++) {
+			for (int i = mask.rowStart[r]; i < mask.rowStart[r + 1]; i++) {
+				int x = mask.runs[2 * i];
+				g2.fillRect(x, mask.y0 + r, mask.runs[2 * i + 1] - x, 1);
+			}
+		}
+	}
+}
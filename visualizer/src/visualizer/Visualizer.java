@@ -38,11 +38,12 @@ import java.awt.event.MouseMotionListener;
 import java.awt.event.MouseWheelEvent;
 import java.awt.event.MouseWheelListener;
 import java.awt.image.BufferedImage;
-import java.awt.image.Raster;
+import java.awt.image.DataBufferInt;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.LineNumberReader;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 import java.util.Dictionary;
 import java.util.HashMap;
@@ -52,8 +53,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import javax.imageio.ImageIO;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
@@ -67,12 +70,16 @@ import javax.swing.border.EmptyBorder;
 import javax.swing.event.ChangeEvent;
 import javax.swing.event.ChangeListener;
 
+import common.BinaryTruth;
+import common.CsvReader;
 import common.Metric;
+import common.PhaseStats;
 import common.P2;
 import common.Polygon;
 import common.Scan;
 import common.Slice;
 import common.Utils;
+import scorer.AreaOverlapEngine;
 import scorer.Scorer;
 
 public class Visualizer implements ActionListener, ItemListener, MouseListener, ChangeListener {
@@ -83,15 +90,29 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 	private int currentSlice = 0;
 	private int currentX = 0;
 	private int currentY = 0;
-	private int dataW, dataH, dataN; // x,y,z sizes of current data matrix
+	private int dataW, dataH, dataN; // x,y,z sizes of current volume
 	private double zScale; // ratio of slice thickness to pixel size
-	private int[][][] data;	
+	private Volume volume;
 	public String dataDir;
 	private String solutionPath;
 	private String metaInPath, metaOutPath;
 	public Map<String, Scan> idToScan;
 	private int loGray = 100;
 	private int hiGray = 11000;
+	private int threads = 1; // scoring threads
+	private VolumeCache volumeCache; // decoded volumes on disk, if set
+	private int decodeThreads = Runtime.getRuntime().availableProcessors();
+	private VolumeLoader volumeLoader, prefetchLoader;
+	private long volumeMemory = Runtime.getRuntime().maxMemory() / 3; // bytes of decoded volumes kept in memory
+	private VolumeLru volumes;
+	private boolean lazyLoading = false; // show a scan before all of its slices are decoded
+	private VolumeLoader.LazyLoad lazyLoad; // of the current scan if it was loaded lazily
+	private String renderOutPath; // slices are written as annotated PNGs here if set
+	private String manifestPath;
+	private DatasetManifest manifest; // saved directory listings, if set
+	private boolean renderTumorOnly = false;
+	private String statsOutPath; // phase timings are written here if set
+	private PhaseStats stats;
 	
 	private JFrame frame;
 	private JPanel viewPanel, controlsPanel;
@@ -106,26 +127,25 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 	private int[] zoomLevels = new int[] {2,3,4,6,8};
 	private int zoom = 2;
 	
-	private Color truthBorderColor          = new Color(  0, 255, 255, 255);
-	private Color truthFillColor            = new Color(  0, 155, 255,  50);
+	private Overlay overlay = new Overlay();
+	private static final byte[] IMAGE_SIZE = "ImageSize".getBytes(StandardCharsets.UTF_8);
+	private static final byte[] PIXEL_SPACING = "PixelSpacing".getBytes(StandardCharsets.UTF_8);
+	
 	private Color truthMarkerColor          = new Color(  0, 155, 255, 200);
-	private Color truthSeedColor            = new Color(255, 200, 200, 255);
-	private Color truthVesselBorderColor    = new Color(255,   0, 255, 200);
-	private Color truthVesselFillColor      = new Color(255,   0, 255,  50);
-	private Color solutionBorderColor	    = new Color(255, 255,   0, 255);
-	private Color solutionFillColor         = new Color(255, 255,   0,  50);
 	private Color solutionMarkerColor       = new Color(255, 255,   0, 200);
-	private Color solutionVesselBorderColor = new Color(255, 255, 125, 200);
-	private Color solutionVesselFillColor   = new Color(255, 255, 125,  50);
 	
 	private void run() {
+		if (statsOutPath != null) stats = new PhaseStats(20);
+		long t0 = System.nanoTime();
 		loadMetaData();
+		t0 = record("metadata", t0);
 		if (metaOutPath != null) {
 			writeMetaData();
 		}
 		boolean solutionOk = false;
 		if (solutionPath != null) {
 			solutionOk = load(solutionPath, false);
+			t0 = record("solution-parse", t0);
 		}
 		
 		if (hasGui) {
@@ -142,10 +162,19 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 		for (String struct: STRUCTURES) totals.put(struct, 0.0);
 		
 		Scorer scorer = new Scorer();
+		scorer.threads = threads;
+		scorer.stats = stats;
+		((AreaOverlapEngine) scorer.overlapEngine).stats = stats;
+		List<Scan> scans = new Vector<>();
+		for (String id: scanIds) scans.add(idToScan.get(id));
+		t0 = System.nanoTime();
+		List<Metric[]> results = scorer.score(scans);
+		record("score", t0);
 		
-		for (String id: scanIds) {
+		for (int scanIndex = 0; scanIndex < scanIds.length; scanIndex++) {
+			String id = scanIds[scanIndex];
 			log(id);
-			Metric[] result = scorer.score(idToScan.get(id));
+			Metric[] result = results.get(scanIndex);
 			Metric scanSums = new Metric();
 			
 			for (int i = 0; i < result.length; i++) {
@@ -230,6 +259,17 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 			log("Can't score.");
 		}
 		
+		if (renderOutPath != null) {
+			log("Rendering slices to " + renderOutPath + " ...");
+			long start = System.currentTimeMillis();
+			BatchRenderer renderer = new BatchRenderer(new File(renderOutPath), loGray, hiGray, 
+					renderTumorOnly, decodeThreads);
+			int cnt = renderer.render(scanIds, idToScan);
+			log(" " + cnt + " slices written in " + (System.currentTimeMillis() - start) + " ms");
+			if (stats != null) stats.add("render", PhaseStats.ALL, (System.currentTimeMillis() - start) * 1000000);
+		}
+		writeStats();
+		
 		// the rest is for UI, not needed for scoring
 		if (!hasGui) return;
 		
@@ -238,6 +278,20 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 		repaintMap();
 	}
 	
+	// records the time since t0 if stats are on, returns the current time
+	private long record(String phase, long t0) {
+		long t = System.nanoTime();
+		if (stats != null) stats.add(phase, PhaseStats.ALL, t - t0);
+		return t;
+	}
+	
+	private void writeStats() {
+		if (stats == null) return;
+		File dir = new File(statsOutPath);
+		dir.mkdirs();
+		stats.write(dir, "visualizer");
+	}
+	
 	private void add(Map<String, Double> map, String key, Double value) {
 		if (value == null || value == 0) return;
 		Double old = map.get(key);
@@ -248,20 +302,26 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
  
     public void loadMetaData() {
     	idToScan = new HashMap<>();
-    	boolean hasMetaIn = metaInPath != null;
+    	if (manifestPath != null) manifest = new DatasetManifest(new File(manifestPath), new File(dataDir));
+    	final boolean hasMetaIn = metaInPath != null;
     	if (hasMetaIn) {
     		load(metaInPath, true);
     	}
     	else {
     		log("Loading scan list from " + dataDir + " ...");
 			// gather scan ids
-	    	for (File f: new File(dataDir).listFiles()) {
-	    		if (f.isDirectory()) {
-	    			String id = f.getName();
-	    			Scan scan = new Scan(id);
-	    			idToScan.put(id, scan);
-	    		}
-	    	}
+    		if (manifest != null) {
+    			for (String id: manifest.scanIds()) idToScan.put(id, new Scan(id));
+    		}
+    		else {
+		    	for (File f: new File(dataDir).listFiles()) {
+		    		if (f.isDirectory()) {
+		    			String id = f.getName();
+		    			Scan scan = new Scan(id);
+		    			idToScan.put(id, scan);
+		    		}
+		    	}
+    		}
     	}
 	    
     	scanIds = idToScan.keySet().toArray(new String[0]);
@@ -270,102 +330,134 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 		int scanCnt = scanIds.length;
 		int progressN =  Math.max(1, scanCnt / 20);		
 		
-		String line = null;
-		int lineNo = 0;
-		
-		int cnt = 0;
 		paintProgress(0);
-    	// load scan and slice meta data
-		for (Scan scan: idToScan.values()) {
-			File scanDirTop = new File(dataDir, scan.id);
-			File scanDir = null;
+		// scans are independent, each one is read by a single task so its contents are
+		// the same as with a serial crawl
+		ExecutorService pool = Executors.newFixedThreadPool(decodeThreads);
+		List<Future<?>> futures = new Vector<>();
+		for (String id: scanIds) {
+			final Scan scan = idToScan.get(id);
+			futures.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					loadScanMetaData(scan, hasMetaIn);
+				}
+			}));
+		}
+		for (int cnt = 0; cnt < futures.size(); cnt++) {
+			try {
+				futures.get(cnt).get();
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+				System.exit(0);
+			}
+			if (!hasMetaIn && cnt % progressN == 0) {
+				paintProgress((double)cnt / scanCnt);
+			}
+		}
+		pool.shutdown();
+		if (manifest != null) {
+			manifest.save();
+			log(manifest.report());
+		}
+	}
+	
+	private void loadScanMetaData(Scan scan, boolean hasMetaIn) {
+		File scanDirTop = new File(dataDir, scan.id);
+		File scanDir = null;
+		String[] names = null; // files in scanDir
+		if (manifest != null) {
+			DatasetManifest.ScanEntry e = manifest.scan(scan.id);
+			if (e.setName != null) scanDir = new File(scanDirTop, e.setName);
+			names = e.files;
+		}
+		else {
 			for (File f: scanDirTop.listFiles()) { // find one with a name like Set_xxx
 				if (f.getName().startsWith("Set_")) {
 					scanDir = f; 
 					break;
 				}
 			}
-			scan.dir = scanDir;
-			
-			if (!hasMetaIn) {
-				// read scan metric metadata
-				File header = new File(scanDir, "CT_Image.txt");
-				line = null;
-				lineNo = 0;
-				try {
-					LineNumberReader lnr = new LineNumberReader(new FileReader(header));
-					while (true) {
-						line = lnr.readLine();
-						lineNo++;
-						if (line == null) break;
-						line = line.trim();
-						/*
-						ImageSize = 512 512 136
-						PixelSpacing = 0.46875 0.46875 0.5
-						*/
-						String[] parts = line.split("=");
-						String tag = parts[0].trim();
-						String[] values = parts[1].trim().split(" ");
-						if (tag.equals("ImageSize")) {
-							scan.w = Integer.parseInt(values[0]);
-							scan.h = Integer.parseInt(values[1]);
-							scan.N = Integer.parseInt(values[2]);
-						}
-						else if (tag.equals("PixelSpacing")) {
-							scan.dx = Double.parseDouble(values[0]);
-							scan.dy = Double.parseDouble(values[1]);
-							scan.dz = Double.parseDouble(values[2]);
-						}
+		}
+		scan.dir = scanDir;
+		if (hasMetaIn) return;
+		
+		// read scan metric metadata
+		File header = new File(scanDir, "CT_Image.txt");
+		loadHeader(scan, header);
+		
+		for (int i = 0; i < scan.N; i++) {
+			Slice s = new Slice();
+			int ordinal = i+1;
+			s.id = "" + ordinal;
+			scan.slices.add(s);
+		}
+		
+		// load contours and seed points
+		if (names == null) names = scanDir.list();
+		for (String name: names) {
+			if (!name.endsWith(".txt")) continue;
+			File f = new File(scanDir, name);
+			if (name.startsWith("Slice")) {
+				// Slice_122_Region_1_Structure_CA_CHA.txt
+				name = name.replace(".txt", "");
+				String[] parts = name.split("_");
+				int sliceOrdinal = Integer.parseInt(parts[1]);
+				Slice slice = scan.slices.get(sliceOrdinal - 1);
+				for (String struct: Polygon.STRUCTURES) {
+					if (name.contains(struct)) {
+						loadContour(scan, slice, struct, f);
 					}
-					lnr.close();
-				} 
-				catch (Exception e) {
-					log("Error reading CT_Image.txt for : " + scan.id);
-					log("Line #" + lineNo + ": " + line);
-					e.printStackTrace();
-					System.exit(0);
 				}
-				
-				for (int i = 0; i < scan.N; i++) {
-					Slice s = new Slice();
-					int ordinal = i+1;
-					s.id = "" + ordinal;
-					scan.slices.add(s);
-				}
-				
-				// load contours and seed points
-				for (File f: scanDir.listFiles()) {
-					String name = f.getName();
-					if (!name.endsWith(".txt")) continue;
-					if (name.startsWith("Slice")) {
-						// Slice_122_Region_1_Structure_CA_CHA.txt
-						name = name.replace(".txt", "");
-						String[] parts = name.split("_");
-						int sliceOrdinal = Integer.parseInt(parts[1]);
-						Slice slice = scan.slices.get(sliceOrdinal - 1);
-						for (String struct: Polygon.STRUCTURES) {
-							if (name.contains(struct)) {
-								loadContour(scan, slice, struct, f);
-							}
-						}
-					}
-					else if (name.startsWith("Structure")) {
-						for (String struct: Polygon.STRUCTURES) {
-							if (name.contains(struct)) {
-								loadSeedPoint(scan, struct, f);
-							}
-						}
+			}
+			else if (name.startsWith("Structure")) {
+				for (String struct: Polygon.STRUCTURES) {
+					if (name.contains(struct)) {
+						loadSeedPoint(scan, struct, f);
 					}
-			    	
-				} // for scan txt files
-			
-				if (cnt % progressN == 0) {
-			    	paintProgress((double)cnt / scanCnt);
-			    }
-			} // if !hasMetaIn
-			
-			cnt++;			
-		} // for scans
+				}
+			}
+		} // for scan txt files
+	}
+	
+	private void loadHeader(Scan scan, File header) {
+		/*
+		ImageSize = 512 512 136
+		PixelSpacing = 0.46875 0.46875 0.5
+		*/
+		CsvReader in = null;
+		try {
+			in = new CsvReader(header, ' ', "=");
+			while (in.nextLine()) {
+				nextValue(in);
+				if (in.fieldEquals(IMAGE_SIZE)) {
+					nextValue(in); scan.w = in.fieldInt();
+					nextValue(in); scan.h = in.fieldInt();
+					nextValue(in); scan.N = in.fieldInt();
+				}
+				else if (in.fieldEquals(PIXEL_SPACING)) {
+					nextValue(in); scan.dx = in.fieldDouble();
+					nextValue(in); scan.dy = in.fieldDouble();
+					nextValue(in); scan.dz = in.fieldDouble();
+				}
+			}
+			in.close();
+		} 
+		catch (Exception e) {
+			log("Error reading CT_Image.txt for : " + scan.id);
+			if (in != null) log("Line #" + in.lineNo + ": " + in.lineString());
+			e.printStackTrace();
+			System.exit(0);
+		}
+	}
+	
+	// moves to the next non-empty field
+	private static void nextValue(CsvReader in) throws Exception {
+		while (in.nextField()) {
+			if (!in.isFieldEmpty()) return;
+		}
+		throw new Exception("Missing value");
 	}
     
     private boolean load(String path, boolean truth) {
@@ -373,6 +465,17 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 		String what = truth ? "truth" : "solution";
 		if (f.exists()) {
 			log("Loading " + what + " file from " +path);
+			if (truth && BinaryTruth.isBinary(f)) {
+				try {
+					BinaryTruth.load(f, idToScan);
+				}
+				catch (Exception e) {
+					log("Error reading " + what + " file");
+					e.printStackTrace();
+					System.exit(0);
+				}
+				return true;
+			}
 			String line = null;
 			int lineNo = 0;
 			try {
@@ -491,28 +594,29 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 	}
     
     private void loadContour(Scan scan, Slice slice, String struct, File f) {
-		String line = null;
-		int lineNo = 0;
-		List<P2> points = new Vector<>();
+		CsvReader in = null;
+		double[] xs = new double[256];
+		double[] ys = new double[256];
+		int n = 0;
 		try {
-			LineNumberReader lnr = new LineNumberReader(new FileReader(f));
-			while (true) {
-				line = lnr.readLine();
-				lineNo++;
-				if (line == null) break;
-				/*
-				{X=260, Y=171}
-				{X=262, Y=171}
-				*/
-				line = line.replaceAll("[={}XY ]", "");
-				String[] parts = line.split(",");
-				int x = Integer.parseInt(parts[0]);
-				int y = Integer.parseInt(parts[1]);
-				points.add(new P2(x, y));
+			/*
+			{X=260, Y=171}
+			{X=262, Y=171}
+			*/
+			in = new CsvReader(f, ',', "={}XY ");
+			while (in.nextLine()) {
+				if (n == xs.length) {
+					xs = Arrays.copyOf(xs, 2 * n);
+					ys = Arrays.copyOf(ys, 2 * n);
+				}
+				in.nextField();
+				xs[n] = in.fieldInt();
+				if (!in.nextField()) throw new Exception("Missing y coordinate");
+				ys[n] = in.fieldInt();
+				n++;
 			}
-			lnr.close();
-			P2[] pArr = points.toArray(new P2[0]);
-			Polygon p = new Polygon(pArr);
+			in.close();
+			Polygon p = new Polygon(Arrays.copyOf(xs, n), Arrays.copyOf(ys, n));
 			List<Polygon> polygons = slice.nameToTruthPolygons.get(struct);
 			if (polygons == null) {
 				polygons = new Vector<>();
@@ -522,7 +626,7 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 		} 
 		catch (Exception e) {
 			log("Error reading contour file " + f.getName() + " for scan: " + scan.id);
-			log("Line #" + lineNo + ": " + line);
+			if (in != null) log("Line #" + in.lineNo + ": " + in.lineString());
 			e.printStackTrace();
 			System.exit(0);
 		}
@@ -572,6 +676,16 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 				"Patient_1", "Patient_10", "Patient_101", "Patient_103", "Patient_104", "Patient_106", "Patient_107", "Patient_109", "Patient_112", "Patient_113", "Patient_114", "Patient_115", "Patient_116", "Patient_117", "Patient_119", "Patient_121", "Patient_122", "Patient_125", "Patient_131", "Patient_133", "Patient_134", "Patient_137", "Patient_139", "Patient_140", "Patient_141", "Patient_142", "Patient_143", "Patient_145", "Patient_146", "Patient_147", "Patient_148", "Patient_149", "Patient_150", "Patient_153", "Patient_156", "Patient_158", "Patient_16", "Patient_160", "Patient_163", "Patient_165", "Patient_17", "Patient_172", "Patient_174", "Patient_175", "Patient_176", "Patient_178", "Patient_182", "Patient_183", "Patient_185", "Patient_188", "Patient_189", "Patient_19", "Patient_194", "Patient_195", "Patient_198", "Patient_2", "Patient_201", "Patient_203", "Patient_204", "Patient_206", "Patient_207", "Patient_208", "Patient_209", "Patient_21", "Patient_211", "Patient_212", "Patient_215", "Patient_216", "Patient_217", "Patient_219", "Patient_22", "Patient_220", "Patient_221", "Patient_225", "Patient_229", "Patient_230", "Patient_231", "Patient_232", "Patient_233", "Patient_234", "Patient_235", "Patient_236", "Patient_238", "Patient_241", "Patient_242", "Patient_26", "Patient_27", "Patient_3", "Patient_31", "Patient_32", "Patient_33", "Patient_36", "Patient_39", "Patient_4", "Patient_41", "Patient_42", "Patient_43", "Patient_45", "Patient_46", "Patient_50", "Patient_52", "Patient_57", "Patient_6", "Patient_62", "Patient_63", "Patient_66", "Patient_67", "Patient_7", "Patient_70", "Patient_72", "Patient_76", "Patient_81", "Patient_82", "Patient_84", "Patient_86", "Patient_88", "Patient_9", "Patient_90", "Patient_95", "Patient_98"
 		};*/
 		
+		if (metaOutPath.endsWith(".bin")) {
+			try {
+				BinaryTruth.write(new File(metaOutPath), scanIds, idToScan);
+			}
+			catch (Exception e) {
+				e.printStackTrace();
+			}
+			return;
+		}
+		
 		try {
 			FileOutputStream out = new FileOutputStream(metaOutPath);
 			StringBuilder sb = null;
@@ -595,8 +709,8 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 							sb = new StringBuilder();
 							// Patient_1,100,SMA,x1,y1,x2,y2,...
 							sb.append(id).append(",").append(s.id).append(",").append(struct);
-							for (P2 p2: p.points) {
-								sb.append(",").append(f(p2.x)).append(",").append(f(p2.y));
+							for (int k = 0; k < p.size(); k++) {
+								sb.append(",").append(f(p.xs[k])).append(",").append(f(p.ys[k]));
 							}
 							sb.append("\n");
 							out.write(sb.toString().getBytes());
@@ -621,47 +735,138 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 		}
 	}
 	
+	private synchronized VolumeLru volumes() {
+		if (volumes == null) {
+			volumeLoader = new VolumeLoader(decodeThreads);
+			// background loads leave most processors to the foreground ones
+			prefetchLoader = new VolumeLoader(Math.max(1, decodeThreads / 2));
+			volumes = new VolumeLru(new VolumeLru.Source() {
+				@Override
+				public Volume load(Scan scan, VolumeLoader.Listener listener) {
+					if (listener == null) return readVolume(scan, prefetchLoader, new VolumeLoader.Listener() {
+						@Override
+						public void progress(double d) {
+							// nothing
+						}
+						@Override
+						public void log(String s) {
+							System.out.println(s);
+						}
+					});
+					return readVolume(scan, volumeLoader, listener);
+				}
+			}, volumeMemory);
+		}
+		return volumes;
+	}
+	
+	// from the disk cache if possible, else decoded from the slice images
+	private Volume readVolume(Scan scan, VolumeLoader loader, VolumeLoader.Listener listener) {
+		long[] mtimes = null;
+		Volume v = null;
+		long t0 = System.nanoTime();
+		if (volumeCache != null) {
+			mtimes = VolumeCache.modificationTimes(scan);
+			v = volumeCache.read(scan, mtimes);
+			if (v != null) record("volume-cache-read", t0);
+		}
+		if (v == null) {
+			v = new Volume(scan.w, scan.h, scan.N);
+			boolean complete = loader.load(scan, v, listener);
+			t0 = record("volume-decode", t0);
+			if (stats != null) stats.count("slices-decoded", scan.N);
+			if (volumeCache != null && complete) {
+				volumeCache.write(scan, mtimes, v);
+				record("volume-cache-write", t0);
+			}
+		}
+		writeStats(); // volumes are loaded while the window is open
+		return v;
+	}
+	
+	// decodes the given slice and returns, the others are decoded in the background
+	private Volume loadLazily(final Scan scan, int first, final long[] mtimes) {
+		final Volume v = new Volume(scan.w, scan.h, scan.N);
+		volumes(); // creates the loaders
+		lazyLoad = volumeLoader.loadLazily(scan, v, first, new VolumeLoader.Listener() {
+			@Override
+			public void progress(double d) {
+				repaintMap(); // front and side views fill up
+			}
+			@Override
+			public void log(String s) {
+				Visualizer.this.log(s);
+			}
+		}, new Runnable() {
+			@Override
+			public void run() {
+				volumes().put(scan, v);
+				if (volumeCache != null) volumeCache.write(scan, mtimes, v);
+			}
+		});
+		try {
+			lazyLoad.await(first);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		return v;
+	}
+	
+	// decodes the current slice next if the scan is loaded lazily
+	private void requestSlice() {
+		VolumeLoader.LazyLoad load = lazyLoad;
+		if (load != null) load.request(currentSlice);
+	}
+	
 	private void loadImages(int sliceToLoad) {
+		if (lazyLoad != null) { // slices of the previous scan not decoded yet are not needed
+			lazyLoad.cancel();
+			lazyLoad = null;
+		}
 		paintProgress(0);
-		File scanDir = currentScan.dir;
 		dataW = currentScan.w;
 		dataH = currentScan.h;
 		dataN = currentScan.N;
-		data = new int[dataW][dataH][dataN];
 		zScale = currentScan.dz * currentScan.N / (currentScan.dx * currentScan.w);
-		int progressN = dataN / 20;
-		for (int k = 0; k < dataN; k++) {
-			File f = null;
-			try {
-				int k1 = k+1;
-				f = new File(scanDir, "Slice_" + k1 + "_CT_Image.png");
-				if (!f.exists()) {
-					log("Can't find image file: " + f.getAbsolutePath());
-					return;
-				}
-				BufferedImage img2 = ImageIO.read(f);
-			    Raster r2 = img2.getRaster();
-			    for (int i = 0; i < dataW; i++) for (int j = 0; j < dataH; j++) {
-			    	int[] samples = r2.getPixel(i, j, new int[4]);
-			    	int c = samples[0];
-			    	if (c < 0) c += 65536; // stored as short
-				    data[i][j][k] = c;
-			    }
-			    if (k % progressN == 0) {
-			    	paintProgress((double)k / dataN);
-			    }
-			}
-			catch (Exception e) {
-				log("Error reading image " + f.getAbsolutePath());
-				e.printStackTrace();
+		volume = null; // may be dropped from memory while the new one loads
+		if (lazyLoading && !volumes().contains(currentScan)) {
+			long[] mtimes = null;
+			Volume v = null;
+			if (volumeCache != null) {
+				mtimes = VolumeCache.modificationTimes(currentScan);
+				v = volumeCache.read(currentScan, mtimes);
 			}
+			if (v != null) volumes().put(currentScan, v);
+			else v = loadLazily(currentScan, sliceToLoad, mtimes);
+			volume = v;
+		}
+		else {
+			volume = volumes().get(currentScan, new VolumeLoader.Listener() {
+				@Override
+				public void progress(double d) {
+					paintProgress(d);
+				}
+				@Override
+				public void log(String s) {
+					Visualizer.this.log(s);
+				}
+			});
 		}
 		currentSlice = sliceToLoad;
 		currentY = dataH / 2;
 		currentX = dataW / 2;
 		
 		paintProgress(-1);
-		if (mapView != null) mapView.clearMetrics();		
+		if (mapView != null) mapView.clearMetrics();
+		
+		// neighbours in scan list order are the likely next ones
+		for (int i = 0; i < scanIds.length; i++) {
+			if (!scanIds[i].equals(currentScan.id)) continue;
+			if (i + 1 < scanIds.length) volumes().prefetch(idToScan.get(scanIds[i + 1]), currentScan);
+			if (i > 0) volumes().prefetch(idToScan.get(scanIds[i - 1]), currentScan);
+			break;
+		}
 	}
 
 
@@ -812,15 +1017,18 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 		private final int M = 5; // margin		
 		private final Color markerColor = new Color(255,255,0,150);
 		private BufferedImage sliceImage, sideImage, frontImage, zoomImage;
-		private int[] grays;
+		private int[] slicePixels, sidePixels, frontPixels, zoomPixels; // the images' RGB values
+		private int[] axialPlane, coronalPlane, sagittalPlane; // voxel values of the views
+		private int[] smallXs, smallYs, smallSlices; // view coordinates of the front and side view pixels
+		private GrayLut lut;
+		// what the images show, they are redrawn only if this changes
+		private String sliceKey, frontKey, sideKey, zoomKey;
 		
 		public MapView() {
 			super();
 			this.addMouseListener(this);
 			this.addMouseWheelListener(this);
 			this.addMouseMotionListener(this);
-			grays = new int[256];
-			for (int i = 0; i < 256; i++) grays[i] = i | (i<<8) | (i<<16);
 		}	
 		
 		public void clearMetrics() {
@@ -857,11 +1065,33 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 			zoomY0 = dataH + M;
 			zoomH = H - M - zoomY0;
 			sliceImage = new BufferedImage(dataW, dataH, BufferedImage.TYPE_INT_RGB);
+			axialPlane = new int[dataW * dataH];
+			coronalPlane = new int[dataW * dataN];
+			sagittalPlane = new int[dataH * dataN];
 			frontImage = new BufferedImage(smallW, smallH, BufferedImage.TYPE_INT_RGB);
 			sideImage = new BufferedImage(smallW, smallH, BufferedImage.TYPE_INT_RGB);
 			zoomImage = new BufferedImage(W-M+1, zoomH, BufferedImage.TYPE_INT_RGB);
+			slicePixels = pixels(sliceImage);
+			frontPixels = pixels(frontImage);
+			sidePixels = pixels(sideImage);
+			zoomPixels = pixels(zoomImage);
+			smallXs = new int[smallW];
+			smallYs = new int[smallW];
+			for (int i = 0; i < smallW; i++) {
+				smallXs[i] = Math.min((int)(i / smallXScale), dataW-1);
+				smallYs[i] = Math.min((int)(i / smallYScale), dataH-1);
+			}
+			smallSlices = new int[smallH];
+			for (int j = 0; j < smallH; j++) {
+				smallSlices[j] = Math.min((int)(j / smallZScale), dataN-1);
+			}
+			sliceKey = frontKey = sideKey = zoomKey = null;
 			metricsValid = true;
 		}
+		
+		private int[] pixels(BufferedImage img) {
+			return ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+		}
 
 		@Override
 		public void paint(Graphics gr) {
@@ -883,42 +1113,39 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 				return;
 			}
 			
-			if (currentScan == null || data == null) return;
+			if (currentScan == null || volume == null) return;
 			
 			if (!metricsValid) {
 				calcMetrics();
 			}
 			
+			if (lut == null || lut.lo != loGray || lut.hi != hiGray) {
+				lut = new GrayLut(loGray, hiGray);
+			}
+			int[] rgb = lut.rgb;
+			String key = volume.version() + "," + loGray + "," + hiGray + ",";
+			
 			// main view
-			double graySpan = hiGray - loGray;
-            for (int i = 0; i < dataW; i++) for (int j = 0; j < dataH; j++) {
-				int v = data[i][j][currentSlice];
-				int c = (int) (255 * (v - loGray) / graySpan);
-				if (c < 0) c = 0;
-				if (c > 255) c = 255;
-                sliceImage.setRGB(i, j, grays[c]);
+			if (!(key + currentSlice).equals(sliceKey)) {
+				volume.axial(currentSlice, axialPlane);
+				for (int i = 0; i < axialPlane.length; i++) slicePixels[i] = rgb[axialPlane[i]];
+				sliceKey = key + currentSlice;
 			}
             g2.drawImage(sliceImage, 0, 0, null);
             
             // zoomed view
             if (mouseX < dataW && mouseY < dataH) {
-				for (int i = M; i < W-M; i++) for (int j = 0; j < zoomH; j++) {
-					int x = mouseX + (i - W/2) / zoom;
-					if (x < 0 || x >= dataW) {
-						zoomImage.setRGB(i-M, j, grays[0]);
-						continue;
-					}
-					int y = mouseY + (j - zoomH/2) / zoom;
-					if (y < 0 || y >= dataH) {
-						zoomImage.setRGB(i-M, j, grays[0]);
-						continue;
+				if (!(key + currentSlice + "," + mouseX + "," + mouseY + "," + zoom).equals(zoomKey)) {
+					int zoomW = W-M+1;
+					for (int j = 0; j < zoomH; j++) {
+						int y = mouseY + (j - zoomH/2) / zoom;
+						boolean yIn = y >= 0 && y < dataH;
+						for (int i = M; i < W-M; i++) {
+							int x = mouseX + (i - W/2) / zoom;
+							zoomPixels[j * zoomW + i-M] = yIn && x >= 0 && x < dataW ? rgb[axialPlane[y * dataW + x]] : 0;
+						}
 					}
-					
-					int v = data[x][y][currentSlice];
-					int c = (int) (255 * (v - loGray) / graySpan);
-					if (c < 0) c = 0;
-					if (c > 255) c = 255;
-                    zoomImage.setRGB(i-M, j, grays[c]);
+					zoomKey = key + currentSlice + "," + mouseX + "," + mouseY + "," + zoom;
 				}
 			    g2.drawImage(zoomImage, M, zoomY0, null);
 
@@ -935,16 +1162,15 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 			int ySlice = (int)(currentSlice * smallZScale + 0.5);
 			
 			// front view
-            for (int i = 0; i < smallW; i++) for (int j = 0; j < smallH; j++) {
-				int x = (int)(i / smallXScale);
-				if (x >= dataW) x = dataW-1;
-				int slice = (int)(j / smallZScale);
-				if (slice >= dataN) slice = dataN-1;
-				int v = data[x][currentY][slice];
-				int c = (int) (255 * (v - loGray) / graySpan);
-				if (c < 0) c = 0;
-				if (c > 255) c = 255;
-                frontImage.setRGB(i, j, grays[c]);
+			if (!(key + currentY).equals(frontKey)) {
+				volume.coronal(currentY, coronalPlane);
+				for (int j = 0; j < smallH; j++) {
+					int row = smallSlices[j] * dataW;
+					for (int i = 0; i < smallW; i++) {
+						frontPixels[j * smallW + i] = rgb[coronalPlane[row + smallXs[i]]];
+					}
+				}
+				frontKey = key + currentY;
 			}
             g2.drawImage(frontImage, smallX0,frontY0, null);
 
@@ -954,16 +1180,15 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 			g2.drawLine(smallX0 + xPos, frontY0, smallX0 + xPos, frontY0 + smallH);
 			
 			// side view
-            for (int i = 0; i < smallW; i++) for (int j = 0; j < smallH; j++) {
-				int y = (int)(i / smallYScale);
-				if (y >= dataH) y = dataH-1;
-				int slice = (int)(j / smallZScale);
-				if (slice >= dataN) slice = dataN-1;
-				int v = data[currentX][y][slice];
-				int c = (int) (255 * (v - loGray) / graySpan);
-				if (c < 0) c = 0;
-				if (c > 255) c = 255;
-                sideImage.setRGB(i, j, grays[c]);
+			if (!(key + currentX).equals(sideKey)) {
+				volume.sagittal(currentX, sagittalPlane);
+				for (int j = 0; j < smallH; j++) {
+					int row = smallSlices[j] * dataH;
+					for (int i = 0; i < smallW; i++) {
+						sidePixels[j * smallW + i] = rgb[sagittalPlane[row + smallYs[i]]];
+					}
+				}
+				sideKey = key + currentX;
 			}
             g2.drawImage(sideImage, smallX0, sideY0, null);
             for (int j = 0; j < smallH; j++) {
@@ -985,60 +1210,21 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 			g2.drawLine(smallX0 + yPos, sideY0, smallX0 + yPos, sideY0 + smallH);
 			
 			String levelInfo = "";
-			if (mouseX < dataW && mouseY < dataH) {
-				levelInfo = " (" + data[mouseX][mouseY][currentSlice] + ")";
+			if (!volume.isLoaded(currentSlice)) {
+				levelInfo = " (decoding)";
+			}
+			else if (mouseX < dataW && mouseY < dataH) {
+				levelInfo = " (" + axialPlane[mouseY * dataW + mouseX] + ")";
 			}
 			g2.setColor(Color.white);
 			g2.setFont(font);
 			int s1 = currentSlice + 1;
 			g2.drawString("#" + s1 + levelInfo, 2*M, 2 * font.getSize());
 			
-			Slice slice = currentScan.slices.get(currentSlice);
-			if (showTruthCb.isSelected()) {
-				for (int i = 0; i < 4; i++) {
-					if (!structureCbs[i].isSelected()) continue;
-					String struct = STRUCTURES[i];
-					Color borderC = i == 0 ? truthBorderColor : truthVesselBorderColor;
-					Color fillC = i == 0 ? truthFillColor : truthVesselFillColor;
-					List<Polygon> truthPolygons = slice.nameToTruthPolygons.get(struct);
-					if (truthPolygons != null) {
-						for (Polygon p: truthPolygons) {
-							drawPoly(p, g2, borderC, fillC);
-						}
-					}
-					if (struct.equals(TUMOR_NAME) && slice.nameToSeedPoints.get(TUMOR_NAME) != null) {
-						for (P2 seed: slice.nameToSeedPoints.get(TUMOR_NAME)) {
-							g2.setColor(truthSeedColor);
-							int x = (int)seed.x;
-							int y = (int)seed.y;
-							g2.drawLine(x - M, y - M, x + M, y + M);
-							g2.drawLine(x - M, y + M, x + M, y - M);
-						}
-					}
-				}
-			}
-			
-			if (showSolutionCb.isSelected()) {
-				for (int i = 0; i < 4; i++) {
-					if (!structureCbs[i].isSelected()) continue;
-					String struct = STRUCTURES[i];
-					Color borderC = i == 0 ? solutionBorderColor : solutionVesselBorderColor;
-					Color fillC = i == 0 ? solutionFillColor : solutionVesselFillColor;
-					List<Polygon> ps = slice.nameToSolutionPolygons.get(struct);
-					if (ps != null) {
-						for (Polygon p: ps) {
-							drawPoly(p, g2, borderC, fillC);
-						}
-					}
-				}
-			}
-		}
-
-		private void drawPoly(Polygon p, Graphics2D g2, Color border, Color fill) {
-			g2.setColor(border);
-			g2.draw(p.shape);
-			g2.setColor(fill);
-			g2.fill(p.shape);
+			boolean[] structures = new boolean[structureCbs.length];
+			for (int i = 0; i < structures.length; i++) structures[i] = structureCbs[i].isSelected();
+			overlay.draw(g2, currentScan, currentScan.slices.get(currentSlice), 
+					showTruthCb.isSelected(), showSolutionCb.isSelected(), structures);
 		}
 
 		@Override
@@ -1058,11 +1244,13 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 				if (y >= frontY0 && y < frontY0 + smallH) {
 					currentX = (int)((x - smallX0) / smallXScale);
 					currentSlice = (int)((y - frontY0) / smallZScale);
+					requestSlice();
 					needRepaint = true;
 				}
 				else if (y >= sideY0 && y < sideY0 + smallH) {
 					currentY = (int)((x - smallX0) / smallYScale);
 					currentSlice = (int)((y - sideY0) / smallZScale);
+					requestSlice();
 					needRepaint = true;
 				}
 			}
@@ -1116,7 +1304,10 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 				changed = true;
 			}
 			
-			if (changed) repaintMap();
+			if (changed) {
+				requestSlice();
+				repaintMap();
+			}
 		}
 	} // class MapView
 	
@@ -1172,6 +1363,7 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 						if (idSet.contains(line)) {
 							if (line.equals(currentScan.id)) {
 								currentSlice = slice;
+								requestSlice();
 								repaintMap();
 								break;
 							}
@@ -1274,6 +1466,15 @@ public class Visualizer implements ActionListener, ItemListener, MouseListener,
 			if (args[i].equals("-lo-gray")) v.loGray = Integer.parseInt(args[i+1]);
 			if (args[i].equals("-hi-gray")) v.hiGray = Integer.parseInt(args[i+1]);
 			if (args[i].equals("-no-gui")) v.hasGui = false;
+			if (args[i].equals("-threads")) v.threads = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-volume-cache")) v.volumeCache = new VolumeCache(new File(args[i+1]));
+			if (args[i].equals("-decode-threads")) v.decodeThreads = Integer.parseInt(args[i+1]);
+			if (args[i].equals("-lazy-load")) v.lazyLoading = true;
+			if (args[i].equals("-render-out")) v.renderOutPath = args[i+1];
+			if (args[i].equals("-render-tumor-only")) v.renderTumorOnly = true;
+			if (args[i].equals("-manifest")) v.manifestPath = args[i+1];
+			if (args[i].equals("-volume-memory")) v.volumeMemory = Long.parseLong(args[i+1]) << 20;
+			if (args[i].equals("-stats-out")) v.statsOutPath = args[i+1];
 		}
 		
 		if (v.dataDir == null) exit("Data directory not set.");
@@ -0,0 +1,125 @@
+package visualizer;
+
+import java.nio.ShortBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Voxel values of a scan as unsigned 16 bit numbers in a single buffer, slice by slice and
+ * row by row, so that an axial plane is one contiguous block. The buffer is either a heap
+ * array or an off-heap one, e.g. a memory mapped volume cache file.
+ */
+public class Volume {
+	public final int w, h, n; // x, y, z sizes
+	private final ShortBuffer values;
+	private final AtomicIntegerArray loaded; // 1 for slices set so far, null if all are there
+	private final AtomicInteger version = new AtomicInteger();
+
+	/**
+	 * Creates an empty volume, slices are added with setSlice.
+	 */
+	public Volume(int w, int h, int n) {
+		this.w = w; this.h = h; this.n = n;
+		values = ShortBuffer.wrap(new short[w * h * n]);
+		loaded = new AtomicIntegerArray(n);
+	}
+
+	/**
+	 * Creates a volume over the given complete values.
+	 */
+	public Volume(int w, int h, int n, ShortBuffer values) {
+		this.w = w; this.h = h; this.n = n;
+		this.values = values;
+		loaded = null;
+	}
+
+	/**
+	 * Returns true if all slices have been set, false e.g. if loading was cancelled or a slice
+	 * image couldn't be read.
+	 */
+	public boolean isComplete() {
+		if (loaded == null) return true;
+		for (int z = 0; z < n; z++) {
+			if (loaded.get(z) == 0) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns true if slice z has been set. Its values are visible to the calling thread then.
+	 */
+	public boolean isLoaded(int z) {
+		return loaded == null || loaded.get(z) != 0;
+	}
+
+	public int get(int x, int y, int z) {
+		return values.get((z * h + y) * w + x) & 0xffff;
+	}
+
+	public void set(int x, int y, int z, int v) {
+		values.put((z * h + y) * w + x, (short)v);
+	}
+
+	/**
+	 * Returns a read-only view of one axial plane, w * h values row by row.
+	 */
+	public ShortBuffer slice(int z) {
+		ShortBuffer ret = values.asReadOnlyBuffer();
+		ret.position(z * w * h);
+		ret.limit((z + 1) * w * h);
+		return ret.slice();
+	}
+
+	/**
+	 * Sets the axial plane z from src, src[y * w + x] = value(x, y, z). Different slices
+	 * can be set from different threads.
+	 */
+	public void setSlice(int z, short[] src) {
+		ShortBuffer dst = values.duplicate();
+		dst.position(z * w * h);
+		dst.put(src, 0, w * h);
+		if (loaded != null) loaded.set(z, 1);
+		version.incrementAndGet();
+	}
+
+	/**
+	 * Returns a number that changes whenever a slice is set.
+	 */
+	public int version() {
+		return version.get();
+	}
+
+	/**
+	 * Copies the axial plane z into dst, dst[y * w + x] = value(x, y, z).
+	 */
+	public void axial(int z, int[] dst) {
+		int offset = z * w * h;
+		for (int i = 0; i < w * h; i++) dst[i] = values.get(offset + i) & 0xffff;
+	}
+
+	/**
+	 * Copies the coronal plane y into dst, dst[z * w + x] = value(x, y, z).
+	 */
+	public void coronal(int y, int[] dst) {
+		for (int z = 0; z < n; z++) {
+			int src = (z * h + y) * w;
+			int to = z * w;
+			for (int x = 0; x < w; x++) dst[to + x] = values.get(src + x) & 0xffff;
+		}
+	}
+
+	/**
+	 * Copies the sagittal plane x into dst, dst[z * h + y] = value(x, y, z).
+	 */
+	public void sagittal(int x, int[] dst) {
+		for (int z = 0; z < n; z++) {
+			int src = z * h * w + x;
+			int to = z * h;
+			for (int y = 0; y < h; y++) dst[to + y] = values.get(src + y * w) & 0xffff;
+		}
+	}
+
+	public long byteSize() {
+		return 2L * w * h * n;
+	}
+}
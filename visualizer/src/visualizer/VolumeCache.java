@@ -0,0 +1,121 @@
+package visualizer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+import common.Scan;
+
+/**
+ * Disk cache of decoded scan volumes, one file per scan. Reading back a cached volume is a
+ * memory mapping instead of decoding all slice PNGs. An entry is used only if the modification
+ * times of the scan's slice images are the same as when it was written.
+ *
+ * File layout (little endian):
+ *   "PCDV", int version, int w, h, N, long[N] slice image modification times,
+ *   w * h * N unsigned 16 bit values, slice by slice, row by row
+ */
+public class VolumeCache {
+	public static final int VERSION = 1;
+	private static final byte[] MAGIC = "PCDV".getBytes(StandardCharsets.UTF_8);
+	private final File dir;
+
+	public VolumeCache(File dir) {
+		this.dir = dir;
+		dir.mkdirs();
+	}
+
+	public static long[] modificationTimes(Scan scan) {
+		long[] ret = new long[scan.N];
+		for (int k = 0; k < scan.N; k++) {
+			ret[k] = VolumeLoader.imageFile(scan, k).lastModified();
+		}
+		return ret;
+	}
+
+	private File file(Scan scan) {
+		return new File(dir, scan.id + ".vol");
+	}
+
+	private static int headerSize(int n) {
+		return MAGIC.length + 4 * 4 + 8 * n;
+	}
+
+	/**
+	 * Returns a volume backed by the mapped cache file, or null if there is no valid entry
+	 * for the scan. Nothing is copied, pages are read as the volume is accessed.
+	 */
+	public Volume read(Scan scan, long[] mtimes) {
+		File f = file(scan);
+		if (!f.exists()) return null;
+		try {
+			FileInputStream in = new FileInputStream(f);
+			FileChannel channel = in.getChannel();
+			ByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			in.close(); // the mapping stays valid
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			if (!validHeader(buf, scan, mtimes)) return null;
+			int w = scan.w, h = scan.h, n = scan.N;
+			if (buf.remaining() != 2L * w * h * n) return null;
+			ShortBuffer values = buf.slice().order(ByteOrder.LITTLE_ENDIAN).asShortBuffer();
+			return new Volume(w, h, n, values);
+		}
+		catch (Exception e) {
+			System.out.println("Can't read volume cache file " + f.getAbsolutePath());
+			e.printStackTrace();
+			return null;
+		}
+	}
+
+	private boolean validHeader(ByteBuffer buf, Scan scan, long[] mtimes) {
+		if (buf.remaining() < headerSize(scan.N)) return false;
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buf.get() != MAGIC[i]) return false;
+		}
+		if (buf.getInt() != VERSION) return false;
+		if (buf.getInt() != scan.w || buf.getInt() != scan.h || buf.getInt() != scan.N) return false;
+		for (int k = 0; k < scan.N; k++) {
+			if (buf.getLong() != mtimes[k]) return false;
+		}
+		return true;
+	}
+
+	public void write(Scan scan, long[] mtimes, Volume volume) {
+		File f = file(scan);
+		File tmp = new File(dir, scan.id + ".vol.tmp");
+		int w = volume.w, h = volume.h, n = volume.n;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(tmp, "rw");
+			FileChannel channel = raf.getChannel();
+			ByteBuffer buf = ByteBuffer.allocateDirect(Math.max(headerSize(n), 2 * w * h));
+			buf.order(ByteOrder.LITTLE_ENDIAN);
+			buf.put(MAGIC);
+			buf.putInt(VERSION);
+			buf.putInt(w).putInt(h).putInt(n);
+			for (int k = 0; k < n; k++) buf.putLong(mtimes[k]);
+			buf.flip();
+			while (buf.hasRemaining()) channel.write(buf);
+			for (int k = 0; k < n; k++) {
+				buf.clear();
+				buf.asShortBuffer().put(volume.slice(k));
+				buf.limit(2 * w * h);
+				while (buf.hasRemaining()) channel.write(buf);
+			}
+			raf.close();
+			f.delete();
+			if (!tmp.renameTo(f)) {
+				System.out.println("Can't write volume cache file " + f.getAbsolutePath());
+			}
+		}
+		catch (Exception e) {
+			System.out.println("Can't write volume cache file " + f.getAbsolutePath());
+			e.printStackTrace();
+			tmp.delete();
+		}
+	}
+}
@@ -0,0 +1,256 @@
+package visualizer;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import common.Scan;
+
+/**
+ * Decodes the slice images of a scan into a volume, several slices at a time on a bounded
+ * thread pool. Pixel data is copied straight from the image's data buffer, the first band
+ * of each pixel holds the CT value.
+ */
+public class VolumeLoader {
+	public interface Listener {
+		/** Called with increasing values in [0, 1] as slices are finished. */
+		void progress(double d);
+		void log(String s);
+	}
+
+	private final int threads;
+	private final ExecutorService pool;
+
+	public VolumeLoader(int threads) {
+		this.threads = Math.max(1, threads);
+		pool = Executors.newFixedThreadPool(this.threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "slice-decoder");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	static File imageFile(Scan scan, int k) {
+		int k1 = k+1;
+		return new File(scan.dir, "Slice_" + k1 + "_CT_Image.png");
+	}
+
+	/**
+	 * Fills the volume with the scan's slice images, returns false if some images are missing
+	 * or unreadable.
+	 */
+	public boolean load(final Scan scan, final Volume v, Listener listener) {
+		for (int k = 0; k < v.n; k++) {
+			File f = imageFile(scan, k);
+			if (!f.exists()) {
+				listener.log("Can't find image file: " + f.getAbsolutePath());
+				return false;
+			}
+		}
+
+		List<Future<Void>> futures = new ArrayList<>();
+		for (int k = 0; k < v.n; k++) {
+			final int slice = k;
+			futures.add(pool.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					decodeSlice(imageFile(scan, slice), v, slice);
+					return null;
+				}
+			}));
+		}
+
+		// wait in slice order so that progress only moves forward
+		boolean ok = true;
+		int progressN = Math.max(1, v.n / 20);
+		for (int k = 0; k < v.n; k++) {
+			try {
+				futures.get(k).get();
+			}
+			catch (ExecutionException e) {
+				listener.log("Error reading image " + imageFile(scan, k).getAbsolutePath());
+				e.getCause().printStackTrace();
+				ok = false;
+			}
+			catch (InterruptedException e) {
+				for (Future<Void> f: futures) f.cancel(true);
+				Thread.currentThread().interrupt();
+				return false;
+			}
+			if (k % progressN == 0) {
+				listener.progress((double)k / v.n);
+			}
+		}
+		return ok;
+	}
+
+	/**
+	 * Starts decoding the scan's slices in the background, the given one first. Progress is
+	 * reported from the decoding threads, onComplete runs once all slices are decoded without
+	 * errors.
+	 */
+	public LazyLoad loadLazily(Scan scan, Volume v, int first, Listener listener, Runnable onComplete) {
+		LazyLoad ret = new LazyLoad(scan, v, first, listener, onComplete);
+		for (int i = 0; i < threads; i++) pool.execute(ret);
+		return ret;
+	}
+
+	/**
+	 * Decoding of a volume in the background. Slices are taken from the front of a queue,
+	 * requesting a slice moves it to the front.
+	 */
+	public static class LazyLoad implements Runnable {
+		private final Scan scan;
+		private final Volume v;
+		private final Listener listener;
+		private final Runnable onComplete;
+		private final LinkedList<Integer> queue = new LinkedList<>(); // slices not started yet
+		private final boolean[] done; // decoded or failed
+		private int finished = 0, failed = 0;
+		private boolean cancelled = false;
+
+		private LazyLoad(Scan scan, Volume v, int first, Listener listener, Runnable onComplete) {
+			this.scan = scan;
+			this.v = v;
+			this.listener = listener;
+			this.onComplete = onComplete;
+			done = new boolean[v.n];
+			queue.add(first);
+			for (int k = 0; k < v.n; k++) {
+				if (k != first) queue.add(k);
+			}
+		}
+
+		/**
+		 * Moves the slice to the front of the queue if it isn't decoded or being decoded yet.
+		 */
+		public synchronized void request(int k) {
+			if (queue.isEmpty() || queue.getFirst() == k) return;
+			if (queue.remove((Integer) k)) queue.addFirst(k);
+		}
+
+		/**
+		 * Waits until the slice is decoded or has failed.
+		 */
+		public synchronized void await(int k) throws InterruptedException {
+			request(k);
+			while (!done[k] && !cancelled) wait();
+		}
+
+		/**
+		 * Drops the slices not started yet.
+		 */
+		public synchronized void cancel() {
+			cancelled = true;
+			queue.clear();
+			notifyAll();
+		}
+
+		public synchronized boolean isComplete() {
+			return finished == v.n && failed == 0;
+		}
+
+		@Override
+		public void run() {
+			while (true) {
+				int k;
+				synchronized (this) {
+					if (queue.isEmpty()) return;
+					k = queue.removeFirst();
+				}
+				File f = imageFile(scan, k);
+				boolean ok = true;
+				try {
+					decodeSlice(f, v, k);
+				}
+				catch (Exception e) {
+					listener.log("Error reading image " + f.getAbsolutePath());
+					e.printStackTrace();
+					ok = false;
+				}
+				boolean complete;
+				synchronized (this) {
+					done[k] = true;
+					finished++;
+					if (!ok) failed++;
+					complete = finished == v.n && failed == 0;
+					notifyAll();
+					listener.progress((double)finished / v.n); // in order
+				}
+				if (complete && onComplete != null) onComplete.run();
+			}
+		}
+	}
+
+	public static void decodeSlice(File f, Volume v, int k) throws Exception {
+		BufferedImage img = ImageIO.read(f);
+		if (img == null) throw new Exception("Unknown image format: " + f.getAbsolutePath());
+		Raster r = img.getRaster();
+		int w = v.w, h = v.h;
+		if (r.getWidth() < w || r.getHeight() < h) {
+			throw new Exception("Image is smaller than " + w + "x" + h + ": " + f.getAbsolutePath());
+		}
+		short[] plane = new short[w * h];
+		SampleModel sm = r.getSampleModel();
+		DataBuffer db = r.getDataBuffer();
+		if (sm instanceof ComponentSampleModel && db.getNumBanks() == 1 &&
+				(db instanceof DataBufferUShort || db instanceof DataBufferByte)) {
+			ComponentSampleModel csm = (ComponentSampleModel) sm;
+			int pixelStride = csm.getPixelStride();
+			int scanlineStride = csm.getScanlineStride();
+			int x0 = r.getMinX() - r.getSampleModelTranslateX();
+			int y0 = r.getMinY() - r.getSampleModelTranslateY();
+			int offset = db.getOffset() + csm.getBandOffsets()[0] + y0 * scanlineStride + x0 * pixelStride;
+			if (db instanceof DataBufferUShort) {
+				short[] src = ((DataBufferUShort) db).getData();
+				for (int j = 0; j < h; j++) {
+					int pos = offset + j * scanlineStride;
+					int to = j * w;
+					for (int i = 0; i < w; i++) {
+						plane[to + i] = src[pos];
+						pos += pixelStride;
+					}
+				}
+			}
+			else {
+				byte[] src = ((DataBufferByte) db).getData();
+				for (int j = 0; j < h; j++) {
+					int pos = offset + j * scanlineStride;
+					int to = j * w;
+					for (int i = 0; i < w; i++) {
+						plane[to + i] = (short)(src[pos] & 0xff);
+						pos += pixelStride;
+					}
+				}
+			}
+		}
+		else { // any other layout, one call per slice
+			int[] samples = r.getSamples(r.getMinX(), r.getMinY(), w, h, 0, (int[]) null);
+			for (int i = 0; i < samples.length; i++) plane[i] = (short)samples[i];
+		}
+		v.setSlice(k, plane);
+	}
+
+	public void shutdown() {
+		pool.shutdownNow();
+	}
+}
@@ -0,0 +1,194 @@
+package visualizer;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.ThreadFactory;
+
+import common.Scan;
+
+/**
+ * Decoded volumes kept in memory. When their total size exceeds the budget the least recently
+ * used ones are dropped. Volumes can be loaded ahead of time on a background thread, a request
+ * for a volume that is being prefetched waits for it instead of loading it again, one that is
+ * still queued for prefetching is loaded by the caller. Incomplete volumes, e.g. from a
+ * cancelled load, are handed out but not kept, failed loads are dropped when they end.
+ */
+public class VolumeLru {
+	public interface Source {
+		/** The listener is null when loading in the background. */
+		Volume load(Scan scan, VolumeLoader.Listener listener);
+	}
+
+	private class Entry {
+		final FutureTask<Volume> task;
+		final long bytes;
+		final boolean prefetch;
+		boolean started; // set when a prefetch starts loading, guarded by the VolumeLru
+
+		Entry(FutureTask<Volume> task, long bytes) {
+			this.task = task;
+			this.bytes = bytes;
+			prefetch = false;
+		}
+
+		Entry(final Scan scan, final VolumeLoader.Listener listener, boolean prefetch) {
+			bytes = bytes(scan);
+			this.prefetch = prefetch;
+			task = new FutureTask<Volume>(new Callable<Volume>() {
+				@Override
+				public Volume call() throws Exception {
+					if (Entry.this.prefetch) {
+						synchronized (VolumeLru.this) {
+							if (entries.get(scan.id) != Entry.this) return null; // taken over by get
+							started = true;
+						}
+					}
+					return source.load(scan, listener);
+				}
+			}) {
+				@Override
+				protected void done() { // failed, cancelled and incomplete loads aren't kept
+					Volume v = null;
+					try {
+						if (!isCancelled()) v = get();
+					}
+					catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					catch (ExecutionException e) {
+						e.getCause().printStackTrace();
+					}
+					if (v == null || !v.isComplete()) remove(scan.id, Entry.this);
+				}
+			};
+		}
+	}
+
+	private final Source source;
+	private final long budget; // bytes
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true); // access order
+	private long size = 0;
+	private final ExecutorService prefetcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "volume-prefetch");
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		}
+	});
+
+	public VolumeLru(Source source, long budget) {
+		this.source = source;
+		this.budget = budget;
+	}
+
+	private static long bytes(Scan scan) {
+		return 2L * scan.w * scan.h * scan.N;
+	}
+
+	/**
+	 * Returns the volume of the scan, loading it on the calling thread if it isn't in memory
+	 * or being prefetched. Returns null if loading failed.
+	 */
+	public Volume get(Scan scan, VolumeLoader.Listener listener) {
+		Entry e;
+		synchronized (this) {
+			e = entries.get(scan.id);
+			if (e != null && e.prefetch && !e.started) { // still queued, loaded here with the caller's listener
+				e.task.cancel(false);
+				remove(scan.id, e);
+				e = null;
+			}
+			if (e == null) {
+				e = new Entry(scan, listener, false);
+				entries.put(scan.id, e);
+				size += e.bytes;
+				trim(scan.id); // make room before loading
+			}
+		}
+		e.task.run(); // nothing if it is running or done
+		Volume ret = null;
+		try {
+			ret = e.task.get();
+		}
+		catch (InterruptedException ex) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException ex) {
+			// printed when the load ended
+		}
+		synchronized (this) {
+			if (ret == null || !ret.isComplete()) remove(scan.id, e);
+			trim(scan.id);
+		}
+		return ret;
+	}
+
+	/**
+	 * Returns true if the scan's volume is in memory or being loaded.
+	 */
+	public synchronized boolean contains(Scan scan) {
+		return entries.containsKey(scan.id);
+	}
+
+	/**
+	 * Adds a volume that was loaded elsewhere, if it is complete.
+	 */
+	public synchronized void put(final Scan scan, final Volume v) {
+		remove(scan.id);
+		if (!v.isComplete()) return;
+		FutureTask<Volume> task = new FutureTask<>(new Callable<Volume>() {
+			@Override
+			public Volume call() {
+				return v;
+			}
+		});
+		task.run();
+		Entry e = new Entry(task, bytes(scan));
+		entries.put(scan.id, e);
+		size += e.bytes;
+		trim(scan.id);
+	}
+
+	/**
+	 * Starts loading the scan's volume in the background unless it is already in memory or it
+	 * doesn't fit into the budget next to the given scan.
+	 */
+	public synchronized void prefetch(Scan scan, Scan current) {
+		if (entries.containsKey(scan.id)) return;
+		if (bytes(scan) + bytes(current) > budget) return;
+		Entry e = new Entry(scan, null, true);
+		entries.put(scan.id, e);
+		size += e.bytes;
+		trim(current.id);
+		prefetcher.execute(e.task);
+	}
+
+	private void remove(String id) {
+		Entry e = entries.remove(id);
+		if (e != null) size -= e.bytes;
+	}
+
+	// removes the scan's entry if it is still the given one
+	private synchronized void remove(String id, Entry e) {
+		if (entries.get(id) == e) remove(id);
+	}
+
+	// drops least recently used volumes except the given one and the ones still loading
+	private void trim(String keep) {
+		Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+		while (size > budget && it.hasNext()) {
+			Map.Entry<String, Entry> me = it.next();
+			if (me.getKey().equals(keep) || !me.getValue().task.isDone()) continue;
+			size -= me.getValue().bytes;
+			it.remove();
+		}
+	}
+}